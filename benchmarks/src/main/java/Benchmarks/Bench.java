@@ -0,0 +1,213 @@
+package Benchmarks;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Small timing harness for the main()-based benchmarks in this package, which drive a
+// whole server rather than one method. It is not JMH: nothing guards against dead-code
+// elimination beyond the volatile sinks the cases write to, and there is no
+// per-benchmark JIT isolation inside one JVM. Its numbers are only good for comparing
+// two builds run the same way on the same machine, not as absolute costs; use the JMH
+// benchmarks in this module for microbenchmarks.
+//
+// Each case is warmed up for a fixed time, then measured in a number of timed
+// iterations. With --forks N the whole benchmark class runs in N fresh JVMs one after
+// another, each printing its own table, so that differences between forks (JIT
+// decisions, heap layout) show up instead of being baked into a single run.
+// Reported per case:
+//   ns/op     mean over all measured calls
+//   +- ns     standard deviation of the per-iteration means
+//   ops/s     throughput on the calling thread
+//   bytes/op  heap allocated by the calling thread (work done on other threads,
+//             such as the server's handlers, is not counted)
+//   p50/p99   per-call latency, only for cases slower than 1 us where timing every
+//             call does not distort the result
+//
+// Options: --quick (shorter runs, 3 iterations, no forks), --iterations <n> (default 5),
+// --forks <n> (default 3; 0 runs in this JVM), --csv <file> (append one row per case,
+// for comparing runs over time), --label <text> (first CSV column, e.g. a commit id).
+// The server code logs every request to stdout; that is discarded while a case runs.
+public class Bench {
+    public interface Op {
+        void run() throws Exception;
+    }
+
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static final long PER_CALL_TIMING_THRESHOLD_NS = 1_000;
+    private static final String IN_FORK = "--in-fork";
+
+    private final PrintStream out = System.out;
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final int iterations;
+    private final String csvFile;
+    private final String label;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public Bench(String[] args) {
+        boolean quick = false;
+        String csv = null;
+        String lbl = "";
+        int iters = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--quick")) quick = true;
+            else if (args[i].equals("--csv") && i + 1 < args.length) csv = args[++i];
+            else if (args[i].equals("--label") && i + 1 < args.length) lbl = args[++i];
+            else if (args[i].equals("--iterations") && i + 1 < args.length) iters = Integer.parseInt(args[++i]);
+        }
+        this.warmupNanos = (quick ? 200 : 1_000) * 1_000_000L;
+        this.measureNanos = (quick ? 500 : 3_000) * 1_000_000L;
+        this.iterations = Math.max(1, iters > 0 ? iters : quick ? 3 : 5);
+        this.csvFile = csv;
+        this.label = lbl;
+    }
+
+    // Called first thing in a benchmark's main. Unless this JVM is itself a fork (or
+    // forks are off), runs main again in each fork, with the same arguments and JVM
+    // options, and returns true: the caller should then return without measuring.
+    public static boolean runForks(Class<?> main, String[] args) throws IOException, InterruptedException {
+        List<String> options = Arrays.asList(args);
+        if (options.contains(IN_FORK)) return false;
+        int forks = options.contains("--quick") ? 0 : 3;
+        int at = options.indexOf("--forks");
+        if (at >= 0 && at + 1 < args.length) forks = Integer.parseInt(args[at + 1]);
+        if (forks <= 0) return false;
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments()); // -D and -X options
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        command.addAll(options);
+        command.add(IN_FORK);
+        for (int fork = 1; fork <= forks; fork++) {
+            System.out.printf("%n# Fork %d of %d%n", fork, forks);
+            int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+            if (exit != 0) throw new IllegalStateException("Fork " + fork + " exited with status " + exit);
+        }
+        return true;
+    }
+
+    public void header(String title) {
+        out.println();
+        out.println("== " + title);
+        out.printf("%-34s %-12s %12s %10s %12s %10s %10s %10s%n",
+                "benchmark", "param", "ns/op", "+- ns", "ops/s", "bytes/op", "p50 us", "p99 us");
+    }
+
+    // Runs setup code with stdout discarded, so server chatter stays out of the results.
+    public void quietly(Op op) throws Exception {
+        System.setOut(DISCARD);
+        try {
+            op.run();
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    public void measure(String name, String param, Op op) throws Exception {
+        System.setOut(DISCARD);
+        try {
+            // Warm-up, which also sizes the batches to roughly 10 ms each
+            long calls = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                op.run();
+                calls++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < warmupNanos);
+
+            // Re-time a slice now that the code is compiled; the warm-up average is skewed by
+            // the interpreted calls at its start
+            long calibrationCalls = Math.max(1, calls / 10);
+            start = System.nanoTime();
+            for (long i = 0; i < calibrationCalls; i++) op.run();
+            long nsPerCall = Math.max(1, (System.nanoTime() - start) / calibrationCalls);
+            int batch = (int) Math.max(1, Math.min(1_000_000, 10_000_000 / nsPerCall));
+            boolean timeEachCall = nsPerCall >= PER_CALL_TIMING_THRESHOLD_NS;
+
+            long[] samples = new long[timeEachCall ? (int) Math.min(2_000_000, measureNanos / nsPerCall * 2 + 16) : 0];
+            int sampleCount = 0;
+            long thread = Thread.currentThread().threadId();
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long measured = 0;
+            long total = 0;
+            double[] iterationMeans = new double[iterations];
+            long iterationNanos = measureNanos / iterations;
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                long iterationCalls = 0;
+                long iterationTotal = 0;
+                while (iterationTotal < iterationNanos) {
+                    long batchStart = System.nanoTime();
+                    for (int i = 0; i < batch; i++) {
+                        if (timeEachCall) {
+                            long t = System.nanoTime();
+                            op.run();
+                            if (sampleCount < samples.length) samples[sampleCount++] = System.nanoTime() - t;
+                        } else {
+                            op.run();
+                        }
+                    }
+                    iterationTotal += System.nanoTime() - batchStart;
+                    iterationCalls += batch;
+                }
+                iterationMeans[iteration] = (double) iterationTotal / iterationCalls;
+                total += iterationTotal;
+                measured += iterationCalls;
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+            report(name, param, (double) total / measured, standardDeviation(iterationMeans),
+                    (double) allocated / measured, Arrays.copyOf(samples, sampleCount));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private void report(String name, String param, double nsPerOp, double error, double bytesPerOp, long[] samples) {
+        String p50 = "-";
+        String p99 = "-";
+        if (samples.length > 0) {
+            Arrays.sort(samples);
+            p50 = String.format("%.1f", percentile(samples, 0.50) / 1_000.0);
+            p99 = String.format("%.1f", percentile(samples, 0.99) / 1_000.0);
+        }
+        out.printf("%-34s %-12s %12.1f %10.1f %12.0f %10.1f %10s %10s%n",
+                name, param, nsPerOp, error, 1e9 / nsPerOp, bytesPerOp, p50, p99);
+
+        if (csvFile != null) {
+            try (PrintWriter csv = new PrintWriter(new FileWriter(csvFile, true))) {
+                csv.printf("%s,%d,%s,%s,%.1f,%.1f,%s,%s,%.1f%n",
+                        label, System.currentTimeMillis(), name, param, nsPerOp, bytesPerOp, p50, p99, error);
+            } catch (IOException e) {
+                System.err.println("Could not write benchmark CSV: " + e.getMessage());
+            }
+        }
+    }
+
+    private static double standardDeviation(double[] values) {
+        if (values.length < 2) return 0;
+        double mean = 0;
+        for (double v : values) mean += v;
+        mean /= values.length;
+        double squares = 0;
+        for (double v : values) squares += (v - mean) * (v - mean);
+        return Math.sqrt(squares / (values.length - 1));
+    }
+
+    static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,92 @@
+package Benchmarks;
+
+import UDPFunctions.UDPLoadGenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Bids through a real embedded UDPServer with its handlers on the fixed 10-thread pool
+// versus a virtual thread per request. Each configuration is one UDPLoadGenerator
+// --embedded run in a fresh JVM, since the thread mode has to be chosen before the
+// server creates its executors; the table collects what each run reports. The text
+// store (the default here) writes its files on the handler threads, so that is where
+// the two modes can differ; the log store only waits for group commit.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar Benchmarks.ExecutorScalingBenchmark
+//        [--store text] [--duration 10] [--rates 200,500,1000]
+public class ExecutorScalingBenchmark {
+    private static final Pattern SENT = Pattern.compile("Sent (\\d+) bids in [\\d.]+ s \\(([\\d.]+)/s\\)");
+    private static final Pattern OUTCOME = Pattern.compile("Bids accepted (\\d+), denied (\\d+), lost (\\d+)");
+    private static final Pattern LATENCY = Pattern.compile("bid -> BID-ACCEPTED\\s+n=\\d+\\s+p50 ([\\d.]+ ms)\\s+p99 ([\\d.]+ ms)");
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String store = "text";
+        int duration = 10;
+        int[] rates = {200, 500, 1_000};
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--store": store = args[i + 1]; break;
+                case "--duration": duration = Integer.parseInt(args[i + 1]); break;
+                case "--rates": rates = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.printf("%s storage, %d s per run%n", store, duration);
+        System.out.printf("%-10s %8s %10s %10s %8s %8s %12s %12s%n",
+                "executor", "rate", "sent/s", "accepted", "denied", "lost", "p50", "p99");
+        for (int rate : rates) {
+            run("fixed(10)", false, store, rate, duration);
+            run("virtual", true, store, rate, duration);
+        }
+    }
+
+    private static void run(String name, boolean virtual, String store, int rate, int duration)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(UDPLoadGenerator.class.getName());
+        command.addAll(List.of("--embedded", "--store", store, "--rate", Integer.toString(rate),
+                "--duration", Integer.toString(duration)));
+        if (virtual) command.add("--virtual-threads");
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String sentPerSecond = "-", accepted = "-", denied = "-", lost = "-", p50 = "-", p99 = "-";
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+                Matcher m;
+                if ((m = SENT.matcher(line)).find()) {
+                    sentPerSecond = m.group(2);
+                } else if ((m = OUTCOME.matcher(line)).find()) {
+                    accepted = m.group(1);
+                    denied = m.group(2);
+                    lost = m.group(3);
+                } else if ((m = LATENCY.matcher(line)).find()) {
+                    p50 = m.group(1);
+                    p99 = m.group(2);
+                }
+            }
+        }
+        int exit = process.waitFor();
+        if (exit != 0) {
+            System.out.printf("%-10s %8d  load generator exited with status %d:%n", name, rate, exit);
+            output.forEach(line -> System.out.println("    " + line));
+            return;
+        }
+        System.out.printf("%-10s %8d %10s %10s %8s %8s %12s %12s%n",
+                name, rate, sentPerSecond, accepted, denied, lost, p50, p99);
+    }
+}
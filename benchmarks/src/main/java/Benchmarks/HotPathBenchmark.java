@@ -0,0 +1,183 @@
+package Benchmarks;
+
+import UDPFunctions.UDPServer;
+import Utils.BinaryProtocol;
+import Utils.FileUtils;
+import Utils.ItemRegistry;
+import Utils.MessageParser;
+import Utils.NetworkUtils;
+import Utils.RegistrationInfo;
+import Utils.Request;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Latency and throughput of the server's hot paths, to compare before and after a
+// change to the engine:
+//   - auction CSV encoding and decoding (ItemRegistry.toCSV / fromCSV)
+//   - FileUtils.getAuctionLine / updateAuctionLine on files of 10 to 100k lines
+//   - request decoding (MessageParser text, BinaryProtocol)
+//   - a bid through a real UDPServer on loopback, from send to BID-ACCEPTED
+//   - broadcast fan-out from NetworkUtils.broadcast to the last datagram received
+//
+// The server runs in-process against a scratch data directory, never src/resources.
+//
+// Usage: java -cp benchmarks/target/benchmarks.jar Benchmarks.HotPathBenchmark [--quick] [--iterations 5] [--forks 3] [--csv results.csv] [--label name]
+public class HotPathBenchmark {
+    private static final int[] FILE_LINES = {10, 1_000, 100_000};
+    private static final int[] FAN_OUT = {1, 10, 100, 1_000};
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        if (Bench.runForks(HotPathBenchmark.class, args)) return;
+        Path dataDir = Files.createTempDirectory("ppas-bench");
+        System.setProperty("ppas.data.dir", dataDir.toString()); // before UDPServer is loaded
+        Bench bench = new Bench(args);
+
+        auctionCsv(bench);
+        auctionFile(bench, dataDir);
+        decoding(bench);
+        loopbackBid(bench);
+        fanOut(bench);
+        System.exit(0); // server threads are not daemons
+    }
+
+    private static void auctionCsv(Bench bench) throws Exception {
+        bench.header("ItemRegistry CSV");
+        ItemRegistry item = new ItemRegistry("lamp", "red desk lamp", 10.00, 3_600_000, 195, "bob");
+        item.placeBid("alice", 24.50);
+        String csv = item.toCSV();
+
+        bench.measure("ItemRegistry.toCSV", "", () -> sink = item.toCSV());
+        bench.measure("ItemRegistry.fromCSV", "", () -> sink = ItemRegistry.fromCSV(csv));
+    }
+
+    private static void auctionFile(Bench bench, Path dataDir) throws Exception {
+        bench.header("FileUtils auction lines");
+        for (int lines : FILE_LINES) {
+            Path file = dataDir.resolve("auctions-" + lines + ".txt");
+            List<String> content = new ArrayList<>(lines);
+            for (int i = 0; i < lines; i++) {
+                ItemRegistry item = new ItemRegistry("item" + i, "description " + i, 10 + i, 3_600_000, i, "seller" + (i % 50));
+                content.add(item.toCSV());
+            }
+            Files.write(file, content);
+
+            // The item sits in the middle of the file, so lookups read half of it on average
+            String target = "item" + (lines / 2);
+            String updated = content.get(lines / 2);
+            String path = file.toString();
+
+            bench.measure("FileUtils.getAuctionLine", lines + " lines", () -> sink = FileUtils.getAuctionLine(path, target));
+            bench.measure("FileUtils.updateAuctionLine", lines + " lines", () -> FileUtils.updateAuctionLine(path, target, updated));
+        }
+    }
+
+    private static void decoding(Bench bench) throws Exception {
+        bench.header("Request decoding");
+        byte[] text = "bid,lamp,alice,125.50".getBytes(StandardCharsets.UTF_8);
+        Request req = new Request();
+        MessageParser.parse(text, 0, text.length, req);
+        byte[] frame = BinaryProtocol.encode(req);
+
+        bench.measure("MessageParser.parse (text)", "bid", () -> MessageParser.parse(text, 0, text.length, req));
+        bench.measure("BinaryProtocol.decode", "bid", () -> BinaryProtocol.decode(frame, frame.length, req));
+    }
+
+    private static void loopbackBid(Bench bench) throws Exception {
+        bench.header("UDPServer loopback");
+        int port = freePort();
+        Thread server = new Thread(() -> {
+            try {
+                new UDPServer().start(port);
+            } catch (IOException e) {
+                System.err.println("Benchmark server failed: " + e.getMessage());
+            }
+        }, "bench-server");
+        server.setDaemon(true);
+        server.start();
+
+        InetSocketAddress serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        try (DatagramSocket seller = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket buyer = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            bench.quietly(() -> {
+                Thread.sleep(300); // let the server bind
+                request(seller, serverAddress, "register,bench_seller,seller,127.0.0.1,1,1", "Registered");
+                request(buyer, serverAddress, "register,bench_buyer,buyer,127.0.0.1,1,1", "Registered");
+                request(seller, serverAddress, "list_item,benchlamp,lamp,1,60,bench_seller", "ITEM_LISTED");
+                request(buyer, serverAddress, "subscribe,1000,benchlamp,bench_buyer", "SUBSCRIBED");
+            });
+
+            // Every bid outbids the last one, so each goes through the accept path
+            AtomicInteger price = new AtomicInteger(1);
+            bench.measure("UDPServer bid -> BID-ACCEPTED", "text", () ->
+                    request(buyer, serverAddress, "bid,benchlamp,bench_buyer," + price.incrementAndGet(), "BID-ACCEPTED"));
+        }
+    }
+
+    private static void fanOut(Bench bench) throws Exception {
+        bench.header("Broadcast fan-out");
+        try (DatagramSocket sender = new DatagramSocket();
+             DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setReceiveBufferSize(8 << 20);
+            receiver.setSoTimeout(1_000);
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort());
+            byte[] buf = new byte[2048];
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+
+            for (int recipients : FAN_OUT) {
+                // Every recipient is the same receiving socket, which counts what arrives
+                List<RegistrationInfo> subscribers = new ArrayList<>(recipients);
+                for (int i = 0; i < recipients; i++) {
+                    subscribers.add(new RegistrationInfo("buyer" + i, "buyer", target, 0));
+                }
+                String message = "BID_UPDATE,RQ#195,benchlamp,125.50,bench_buyer,42";
+
+                bench.measure("NetworkUtils.broadcast (delivered)", recipients + " dest", () -> {
+                    NetworkUtils.broadcast(sender, subscribers, null, message);
+                    for (int i = 0; i < recipients; i++) {
+                        receiver.receive(packet);
+                    }
+                });
+            }
+        }
+    }
+
+    // Sends a request and waits for the reply that starts with expected, skipping broadcasts.
+    private static void request(DatagramSocket socket, InetSocketAddress server, String message, String expected) throws IOException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(data, data.length, server));
+        byte[] buf = new byte[65535];
+        DatagramPacket reply = new DatagramPacket(buf, buf.length);
+        socket.setSoTimeout(2_000);
+        while (true) {
+            try {
+                socket.receive(reply);
+            } catch (SocketTimeoutException e) {
+                throw new IOException("No reply to '" + message + "'");
+            }
+            String text = new String(reply.getData(), 0, reply.getLength(), StandardCharsets.UTF_8);
+            if (text.startsWith(expected)) return;
+            if (!text.startsWith("BID_UPDATE") && !text.startsWith("AUCTION_")) {
+                throw new IOException("Unexpected reply to '" + message + "': " + text);
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (DatagramSocket probe = new DatagramSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package Benchmarks;
+
+import Utils.BinaryProtocol;
+import Utils.MessageParser;
+import Utils.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// Request decoding cost: the split()-based parsing the handlers used to do versus the
+// streaming decoder in MessageParser (text) and BinaryProtocol (binary). Run with
+// -prof gc to see the allocation per decoded request.
+//
+// Usage: java -jar benchmarks/target/benchmarks.jar MessageDecodeBenchmark [-prof gc] [-p action=bid]
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class MessageDecodeBenchmark {
+    @Param({"bid", "list_item", "subscribe"})
+    public String action;
+
+    private byte[] data;
+    private byte[] frame;
+    private final Request req = new Request();
+
+    @Setup
+    public void setup() {
+        String message;
+        switch (action) {
+            case "bid": message = "bid,lamp,alice,125.50"; break;
+            case "list_item": message = "list_item,lamp,red desk lamp,10.00,60,bob"; break;
+            case "subscribe": message = "subscribe,4821,lamp,alice"; break;
+            default: throw new IllegalArgumentException("Unknown action: " + action);
+        }
+        data = message.getBytes(StandardCharsets.UTF_8);
+        MessageParser.parse(data, 0, data.length, req);
+        frame = BinaryProtocol.encode(req);
+    }
+
+    @Benchmark
+    public void splitOld(Blackhole blackhole) {
+        blackhole.consume(splitDecode(data));
+    }
+
+    @Benchmark
+    public void streamingText(Blackhole blackhole) {
+        MessageParser.parse(data, 0, data.length, req);
+        blackhole.consume(req);
+    }
+
+    // What a handler pays once it reads the item and user names
+    @Benchmark
+    public void streamingWithFields(Blackhole blackhole) {
+        MessageParser.parse(data, 0, data.length, req);
+        blackhole.consume(req.getItem());
+        blackhole.consume(req.getUser());
+    }
+
+    @Benchmark
+    public void binary(Blackhole blackhole) {
+        BinaryProtocol.decode(frame, frame.length, req);
+        blackhole.consume(req);
+    }
+
+    // The decoding handleMessage and the handlers did before the streaming decoder.
+    private static Object splitDecode(byte[] data) {
+        String msg = new String(data).trim();
+        String spaceAction = msg.split("\\s+")[0].trim().toLowerCase();
+        if (spaceAction.equals("accept") || spaceAction.equals("refuse")) return spaceAction;
+
+        String[] tokens = msg.split(",");
+        String action = tokens[0].trim().toLowerCase();
+        switch (action) {
+            case "bid": {
+                String[] t = msg.split(",");
+                return new Object[]{t[0].trim(), t[1].trim(), t[2].trim(), Double.parseDouble(t[3].trim())};
+            }
+            case "list_item": {
+                String[] t = msg.split(",");
+                return new Object[]{t[1].trim(), t[2].trim(), Double.parseDouble(t[3].trim()),
+                        Long.parseLong(t[4].trim()), t[5].trim()};
+            }
+            case "subscribe": {
+                String[] t = msg.split(",", 4);
+                return new Object[]{t[1].trim(), t[2].trim(), t[3].trim()};
+            }
+            default:
+                return tokens;
+        }
+    }
+}
@@ -2,21 +2,47 @@ package Main;
 
 import TCPFunctions.TCPServer;
 import UDPFunctions.UDPServer;
+import Utils.Log;
+import Utils.Metrics;
+import Utils.NetworkUtils;
+import Utils.WorkerThreads;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class AuctionServer {
     public static void main(String[] args) {
         int udpPort = 420; // For client requests and auction updates
         int tcpPort = 443;   // For end-of-auction result notifications
+        boolean useNio = Arrays.asList(args).contains("--nio"); // Selector-based UDP receive loop
+
+        // Print request latencies, lock waits, queue depth and file I/O times every 10 s
+        if (Arrays.asList(args).contains("--metrics")) {
+            Metrics.startDump(10_000);
+        }
+
+        // Virtual thread per request and per auction finalization instead of the fixed pool
+        WorkerThreads.useVirtualThreads(Arrays.asList(args).contains("--virtual-threads"));
+
+        // Per-client flood protection for outbound datagrams: -Dppas.pacing.rate packets/s
+        // (default 20, 0 disables pacing) with bursts of -Dppas.pacing.burst (default 10)
+        NetworkUtils.configurePacing(Double.parseDouble(System.getProperty("ppas.pacing.rate", "20")),
+                Integer.getInteger("ppas.pacing.burst", 10));
+
+        // Coalesce BID_UPDATEs per item into -Dppas.bid.window.ms windows (default 50, 0 sends one per accepted bid)
+        UDPServer.setBidUpdateWindow(Long.getLong("ppas.bid.window.ms", 50));
 
         // Start UDP server
         Thread udpThread = new Thread(() -> {
             try {
                 UDPServer udpServer = new UDPServer();
-                udpServer.start(udpPort); // Your existing method to start UDP logic
+                if (useNio) {
+                    udpServer.startNio(udpPort);
+                } else {
+                    udpServer.start(udpPort); // Your existing method to start UDP logic
+                }
             } catch (IOException e) {
-                System.err.println("UDP Server failed to start: " + e.getMessage());
+                Log.error("UDP Server failed to start: {}", e.getMessage());
             }
         });
 
@@ -26,7 +52,7 @@ public class AuctionServer {
                 TCPServer tcpServer = new TCPServer("0.0.0.0", tcpPort); // 0.0.0.0 to bind all IPs
                 tcpServer.start(); // Blocking method that accepts connections
             } catch (Exception e) {
-                System.err.println("TCP Server failed to start: " + e.getMessage());
+                Log.error("TCP Server failed to start: {}", e.getMessage());
             }
         });
 
@@ -34,6 +60,6 @@ public class AuctionServer {
         udpThread.start();
         tcpThread.start();
 
-        System.out.println("AuctionServer is running both UDP and TCP servers.");
+        Log.info("AuctionServer is running both UDP and TCP servers.");
     }
 }
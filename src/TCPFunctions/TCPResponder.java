@@ -1,7 +1,9 @@
 package TCPFunctions;
 
 import Utils.FileUtils;
+import Utils.Log;
 import Utils.RegistrationInfo;
+import Utils.WorkerThreads;
 
 import java.io.*;
 import java.net.ServerSocket;
@@ -22,15 +24,15 @@ public class TCPResponder {
     public void start() {
         new Thread(() -> {
             try (ServerSocket serverSocket = new ServerSocket(port)) {
-                System.out.println("TCPResponder listening on port " + port);
+                Log.info("TCPResponder listening on port {}", port);
 
                 while (true) {
                     Socket socket = serverSocket.accept();
 
-                    new Thread(() -> handleConnection(socket)).start();
+                    WorkerThreads.start(() -> handleConnection(socket));
                 }
             } catch (IOException e) {
-                System.err.println("TCPResponder error: " + e.getMessage());
+                Log.error("TCPResponder error: {}", e.getMessage());
             }
         }).start();
     }
@@ -56,7 +58,7 @@ public class TCPResponder {
             out.println("CARD_INFO," + ccInfo + "," + expiryDate);
             System.out.println("Credit card info sent to server.");
         } catch (IOException e) {
-            System.err.println("Error reading credit card info: " + e.getMessage());
+            Log.error("Error reading credit card info: {}", e.getMessage());
         }
     }
 
@@ -78,7 +80,7 @@ public class TCPResponder {
                 System.out.println("Invalid address. Please try again.");
             }
         } catch (IOException e) {
-            System.err.println("Error reading mailing address: " + e.getMessage());
+            Log.error("Error reading mailing address: {}", e.getMessage());
         }
     }
 
@@ -103,7 +105,7 @@ public class TCPResponder {
                     String[] auctionDetails = auctionData.split(",");
 
                     if (auctionDetails.length < 5) {
-                        System.err.println("Error: Auction data is incomplete: " + auctionData);
+                        Log.warn("Auction data is incomplete: {}", auctionData);
                         return;  // Exit early if the message format is invalid
                     }
 
@@ -115,23 +117,16 @@ public class TCPResponder {
                     int duration = 0;  // Always 0 for auction end
 
                     // Output the parsed details for verification
-                    System.out.println("Auction Request Number: " + auctionRequestNumber);
-                    System.out.println("Item Name: " + itemName);
-                    System.out.println("Item Description: " + itemDescription);
-                    System.out.println("Final Price: " + finalPrice);
-                    System.out.println("Highest Bidder: " + highestBidderName);
-                    System.out.println("Auction Duration: " + duration);
-
-                    // Handle the buyer's prompt if the user is the highest bidder
-                    if (line.contains("AUCTION_ENDED")) {
-                        System.out.println("Auction ended: " + line);
-                    }
+                    Log.debug("Auction Request Number: {}, Item Name: {}, Item Description: {}",
+                            auctionRequestNumber, itemName, itemDescription);
+                    Log.debug("Final Price: {}, Highest Bidder: {}, Auction Duration: {}",
+                            finalPrice, highestBidderName, duration);
 
                 }
                 else if (line.startsWith("INFORM_Req")) {
                     String[] tokens = line.split(",");
                     if (tokens.length != 4) {
-                        System.err.println("Invalid INFORM_Req format: " + line);
+                        Log.warn("Invalid INFORM_Req format: {}", line);
                         return;
                     }
 
@@ -158,7 +153,7 @@ public class TCPResponder {
                 else if (line.startsWith("Shipping_Info")) {
                     String[] tokens = line.split(",", 4);
                     if (tokens.length != 4) {
-                        System.err.println("Invalid Shipping_Info format: " + line);
+                        Log.warn("Invalid Shipping_Info format: {}", line);
                         return;
                     }
 
@@ -175,7 +170,7 @@ public class TCPResponder {
 
             }
         } catch (IOException e) {
-            System.err.println("Error handling TCP message: " + e.getMessage());
+            Log.error("Error handling TCP message: {}", e.getMessage());
         }
     }
 }
\ No newline at end of file
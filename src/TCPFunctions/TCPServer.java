@@ -1,5 +1,7 @@
 package TCPFunctions;
 
+import Utils.Log;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
@@ -18,12 +20,12 @@ public class TCPServer {
     }
 
     public void start() throws Exception {
-        System.out.println("\nRunning TCP Server: Host=" + getSocketAddress().getHostAddress() + " Port=" + getPort());
+        Log.info("Running TCP Server: Host={} Port={}", getSocketAddress().getHostAddress(), getPort());
         listen();
     }
 
     public void listen() throws Exception {
-        System.out.println("Waiting for TCP client connections...");
+        Log.info("Waiting for TCP client connections...");
 
         while (true) {
             try (Socket client = this.server.accept();
@@ -31,16 +33,16 @@ public class TCPServer {
                  PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
 
                 String clientAddress = client.getInetAddress().getHostAddress();
-                System.out.println("New TCP connection from " + clientAddress);
+                Log.debug("New TCP connection from {}", clientAddress);
 
                 String data;
                 while ((data = in.readLine()) != null) {
-                    System.out.println("Message from " + clientAddress + ": " + data);
+                    Log.debug("Message from {}: {}", clientAddress, data);
                     out.println("Server received: " + data);
                 }
 
             } catch (Exception e) {
-                System.out.println("Error handling client: " + e.getMessage());
+                Log.error("Error handling client: {}", e.getMessage());
             }
         }
     }
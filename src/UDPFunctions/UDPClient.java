@@ -1,14 +1,22 @@
 package UDPFunctions;
 
 import TCPFunctions.TCPResponder;
+import Utils.BinaryProtocol;
+import Utils.MessageParser;
+import Utils.ReliableUdp;
+import Utils.Request;
+import Utils.WorkerThreads;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.*;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class UDPClient {
@@ -19,6 +27,11 @@ public class UDPClient {
     private BlockingQueue<String> negotiationQueue = new LinkedBlockingQueue<>(); // Add this to the class fields
     private Scanner sc = new Scanner(System.in);
     private String uniqueName = "", role = "";
+    private volatile boolean binary = false; // requests go out as binary frames once the server acks HELLO
+    private final CountDownLatch helloAck = new CountDownLatch(1);
+    private final Request outgoing = new Request();
+    private final ReliableUdp reliability =
+            new ReliableUdp((ds, to, frame) -> ds.send(new DatagramPacket(frame, frame.length, to)));
 
     public UDPClient(InetAddress serverAddress, int serverPort) throws SocketException {
         this.socket = new DatagramSocket();
@@ -29,6 +42,45 @@ public class UDPClient {
         new Thread(this::listenForResponses).start();
     }
 
+    // Sequences, acknowledges and retransmits everything exchanged with the server from
+    // now on. Only servers that have ReliableUdp understand the framing.
+    public void enableReliableDelivery() {
+        reliability.enable(socket, new InetSocketAddress(serverAddress, serverPort));
+        System.out.println("Using reliable delivery.");
+    }
+
+    // Offers the binary protocol. A server that does not know it never answers the
+    // HELLO, and the client keeps using text.
+    public void negotiateBinary() throws IOException {
+        transmit(BinaryProtocol.hello());
+        try {
+            binary = helloAck.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(binary ? "Using binary protocol." : "Using text protocol.");
+    }
+
+    // Menus build text commands; in binary mode they are re-encoded before sending.
+    private void send(String message) throws IOException {
+        byte[] buf = message.getBytes();
+        if (binary) {
+            try {
+                MessageParser.parse(message, outgoing);
+                buf = BinaryProtocol.encode(outgoing);
+            } catch (IllegalArgumentException e) {
+                // Malformed input goes out as text so the server rejects it with its usual reason
+            }
+        }
+        transmit(buf);
+    }
+
+    private void transmit(byte[] payload) throws IOException {
+        InetSocketAddress server = new InetSocketAddress(serverAddress, serverPort);
+        byte[] frame = reliability.wrap(server, payload); // unchanged unless reliable delivery is on
+        socket.send(new DatagramPacket(frame, frame.length, server));
+    }
+
     private void listenForResponses() {
         byte[] buffer = new byte[65535];
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
@@ -36,7 +88,31 @@ public class UDPClient {
         while (true) {
             try {
                 socket.receive(packet);
-                String message = new String(packet.getData(), 0, packet.getLength()).trim();
+                byte[] data = packet.getData();
+                int length = packet.getLength();
+                if (ReliableUdp.isFrame(data, length)) {
+                    int offset = reliability.receive(socket, (InetSocketAddress) packet.getSocketAddress(), data, length);
+                    if (offset < 0) continue; // an ack, or a message we already have
+                    data = Arrays.copyOfRange(data, offset, length);
+                    length = data.length;
+                }
+
+                if (BinaryProtocol.isHelloAck(data, length)) {
+                    helloAck.countDown();
+                    continue;
+                }
+
+                String message;
+                if (BinaryProtocol.isBinary(data, length)) {
+                    try {
+                        message = BinaryProtocol.decodeReply(data, length);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Ignoring bad reply: " + e.getMessage());
+                        continue;
+                    }
+                } else {
+                    message = new String(data, 0, length).trim();
+                }
 
                 // Handle broadcasts
                 if (message.startsWith("AUCTION_UPDATE") ||
@@ -58,8 +134,7 @@ public class UDPClient {
     }
 
     private void sendAndReceive(String message) throws IOException {
-        byte[] buf = message.getBytes();
-        socket.send(new DatagramPacket(buf, buf.length, serverAddress, serverPort));
+        send(message);
 
         boolean expectRQ = message.matches(".*\\b\\d{3,5}\\b.*");
         String rqTag = expectRQ ? extractRequestNumber(message) : "";
@@ -67,14 +142,11 @@ public class UDPClient {
 
         while (true) {
             try {
-                String response = responseQueue.poll();
+                long remaining = 5000 - (System.currentTimeMillis() - startTime);
+                String response = remaining > 0 ? responseQueue.poll(remaining, TimeUnit.MILLISECONDS) : null;
                 if (response == null) {
-                    if (System.currentTimeMillis() - startTime > 5000) {
-                        System.err.println("Timed out waiting for response.");
-                        return;
-                    }
-                    Thread.sleep(100);
-                    continue;
+                    System.err.println("Timed out waiting for response.");
+                    return;
                 }
                 if (!expectRQ || response.contains(rqTag)) {
                     System.out.println("Server Response: " + response);
@@ -124,22 +196,20 @@ public class UDPClient {
             String regMessage = String.format("register,%s,%s,%s,%s,%s", uniqueName, role, clientIP, udpPort, tcpPort);
 
             // Send registration message
-            byte[] buf = regMessage.getBytes();
-            socket.send(new DatagramPacket(buf, buf.length, serverAddress, serverPort));
+            send(regMessage);
 
             long startTime = System.currentTimeMillis();
             String response = null;
 
             while (System.currentTimeMillis() - startTime < 5000 && response == null) {
                 try {
-                    String msg = responseQueue.poll();
+                    long remaining = 5000 - (System.currentTimeMillis() - startTime);
+                    String msg = responseQueue.poll(Math.max(1, remaining), TimeUnit.MILLISECONDS);
                     if (msg != null && (msg.toLowerCase().startsWith("registered") || msg.toLowerCase().startsWith("register-denied"))) {
                         response = msg;
                         System.out.println("Server Response: " + response);
                     } else if (msg != null) {
                         System.out.println("Skipping unrelated message: " + msg);
-                    } else {
-                        Thread.sleep(100);
                     }
                 } catch (InterruptedException e) {
                     System.err.println("Interrupted while waiting for registration response.");
@@ -246,7 +316,7 @@ public class UDPClient {
                 String response = String.format("ACCEPT %s %s %s", rqNum, itemName, newPrice);
 
                 try {
-                    socket.send(new DatagramPacket(response.getBytes(), response.length(), serverAddress, serverPort));
+                    send(response);
                 } catch (IOException e) {
                     System.err.println(" Failed to send ACCEPT message: " + e.getMessage());
                 }
@@ -255,7 +325,7 @@ public class UDPClient {
                 String response = String.format("REFUSE %s %s REJECT", rqNum, itemName);
 
                 try {
-                    socket.send(new DatagramPacket(response.getBytes(), response.length(), serverAddress, serverPort));
+                    send(response);
                 } catch (IOException e) {
                     System.err.println(" Failed to send REFUSE message: " + e.getMessage());
                 }
@@ -299,7 +369,8 @@ public class UDPClient {
                     String bidItem = sc.nextLine().trim();
                     System.out.print("Enter your bid amount: ");
                     String bidAmount = sc.nextLine().trim();
-                    String bidMsg = String.format("bid,%s,%s,%s", bidItem, uniqueName, bidAmount);
+                    // Numbered so a retry is answered from the server's replay cache, not bid twice
+                    String bidMsg = String.format("bid,%d,%s,%s,%s", 1000 + (int)(Math.random() * 9000), bidItem, uniqueName, bidAmount);
                     sendAndReceive(bidMsg);
                     break;
 
@@ -329,8 +400,17 @@ public class UDPClient {
 
         int udpPort = 420; // This should match the server's UDP port
 
+        // Handle incoming TCP notifications on virtual threads
+        WorkerThreads.useVirtualThreads(Arrays.asList(args).contains("--virtual-threads"));
+
         // Start the UDP client
         UDPClient client = new UDPClient(serverIP, udpPort);
+        if (Arrays.asList(args).contains("--reliable")) {
+            client.enableReliableDelivery(); // before the HELLO, so that is framed too
+        }
+        if (!Arrays.asList(args).contains("--text")) {
+            client.negotiateBinary(); // falls back to text if the server does not answer
+        }
         client.run();
     }
 }
\ No newline at end of file
@@ -0,0 +1,599 @@
+package UDPFunctions;
+
+import Utils.BinaryProtocol;
+import Utils.MessageParser;
+import Utils.Metrics;
+import Utils.ReliableUdp;
+import Utils.NetworkUtils;
+import Utils.Request;
+import Utils.WorkerThreads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Headless load generator for UDPServer. It speaks the same text (or binary) requests
+// as UDPClient, from one UDP socket per synthetic user:
+//   1. registers the buyers and sellers
+//   2. the sellers list the items
+//   3. every buyer subscribes to a few items, picked with a Zipf distribution so a
+//      handful of items are hot and most are cold
+//   4. bids are sent at a fixed rate by random idle buyers on their subscribed items,
+//      each bid one cent above the last bid sent for that item
+//   5. everyone deregisters
+//
+// Reported: bid -> BID-ACCEPTED latency, and broadcast lag, measured from sending the
+// bid whose price a BID_UPDATE carries to that update reaching a subscriber. Updates are
+// coalesced per item by the server, so the lag includes its update window.
+//
+// Loopback only. Either start the server with limits that fit the load, e.g.
+//   java -Dppas.max.users=1010 -Dppas.max.items=100 Main.AuctionServer
+// or pass --embedded to run one in-process on a scratch data directory.
+//
+// --loss p drops that fraction of datagrams in each direction while bids run (setup
+// is lossless), and --reliable sends everything through ReliableUdp, to compare how
+// requests fare under loss with and without it.
+//
+// --store picks the embedded server's storage backend (log, text, memory, or mmap for
+// mapped auction slots on top of the log), to compare backends under the same load,
+// and --virtual-threads runs its handlers on virtual threads instead of the fixed pool.
+//
+// Usage: java UDPFunctions.UDPLoadGenerator [--buyers 1000] [--sellers 10] [--items 100]
+//        [--subscriptions 3] [--zipf 1.0] [--rate 200] [--duration 30] [--port 420]
+//        [--binary] [--reliable] [--loss 0.03] [--embedded [--store log] [--virtual-threads]]
+public class UDPLoadGenerator {
+    private static final long START_CENTS = 100; // every item is listed at 1.00
+    private static final long BID_TIMEOUT_NS = 2_000_000_000L; // an unanswered bid counts as lost
+    private static final long PHASE_TIMEOUT_MS = 5_000; // setup gives up after this long without a reply
+    private static final int SETUP_WINDOW = 64; // setup requests in flight at once
+
+    private int buyerCount = 1000;
+    private int sellerCount = 10;
+    private int itemCount = 100;
+    private int subscriptionsPerBuyer = 3;
+    private double zipfExponent = 1.0;
+    private int bidsPerSecond = 200;
+    private int durationSeconds = 30;
+    private int port = 420;
+    private boolean binary = false;
+    private boolean reliable = false;
+    private double lossRate = 0;
+    private volatile boolean lossy = false;
+    private final AtomicLong datagramsSent = new AtomicLong();
+    private final AtomicLong datagramsReceived = new AtomicLong();
+    private final AtomicLong datagramsDropped = new AtomicLong();
+    private long bidPhaseSent, bidPhaseReceived;
+    private boolean embedded = false;
+    private String store = "log";
+    private boolean virtualThreads = false;
+
+    private final PrintStream out = System.out;
+    private final String runId = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36);
+    private final Random random = new Random(42);
+    private final Request outgoing = new Request(); // main thread only
+    private InetSocketAddress server;
+    private Selector selector;
+
+    private final List<SimUser> buyers = new ArrayList<>();
+    private final List<SimUser> sellers = new ArrayList<>();
+    private final List<SimItem> items = new ArrayList<>();
+    private final Map<String, SimItem> itemsByName = new HashMap<>();
+    private double[] zipfCumulative;
+
+    // Setup phases: replies received, and how many of them were denials
+    private final AtomicInteger phaseReplies = new AtomicInteger();
+    private final AtomicInteger phaseDenied = new AtomicInteger();
+    private volatile String phaseDenial;
+
+    // Written by the receiver thread only, read after it stops
+    private final Samples bidLatency = new Samples();
+    private final Samples broadcastLag = new Samples();
+    private long bidsAccepted, bidsDenied, unmatchedUpdates;
+    private final AtomicLong bidsLost = new AtomicLong();
+    private volatile boolean receiving = true;
+
+    private static final class SimUser {
+        final String name;
+        final DatagramChannel channel;
+        final AtomicLong bidSentAt = new AtomicLong(); // 0 when no bid is outstanding
+        int[] subscriptions = new int[0];
+        ReliableUdp reliability; // null unless --reliable
+
+        SimUser(String name, DatagramChannel channel) {
+            this.name = name;
+            this.channel = channel;
+        }
+    }
+
+    private static final class SimItem {
+        final String name;
+        long[] bidSentAt = new long[256]; // indexed by bid number, guarded by this
+        int bids;
+
+        SimItem(String name) {
+            this.name = name;
+        }
+
+        synchronized long nextBid(long now) {
+            if (bids == bidSentAt.length) bidSentAt = Arrays.copyOf(bidSentAt, bids * 2);
+            bidSentAt[bids] = now;
+            return bids++;
+        }
+
+        synchronized long sentAt(long bid) {
+            return bid >= 0 && bid < bids ? bidSentAt[(int) bid] : 0;
+        }
+    }
+
+    // Growable list of nanosecond samples
+    private static final class Samples {
+        long[] values = new long[1024];
+        int count;
+
+        void add(long value) {
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count++] = value;
+        }
+
+        String summary() {
+            if (count == 0) return "no samples";
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return String.format("n=%d  p50 %s  p99 %s  p999 %s  max %s", count,
+                    millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.99)),
+                    millis(percentile(sorted, 0.999)), millis(sorted[count - 1]));
+        }
+
+        private static long percentile(long[] sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        UDPLoadGenerator generator = new UDPLoadGenerator();
+        if (!generator.parseArgs(args)) {
+            System.exit(1);
+        }
+        generator.run();
+        System.exit(0); // an embedded server's threads are not daemons
+    }
+
+    private boolean parseArgs(String[] args) throws IOException {
+        String host = "127.0.0.1";
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--buyers": buyerCount = Integer.parseInt(args[++i]); break;
+                    case "--sellers": sellerCount = Integer.parseInt(args[++i]); break;
+                    case "--items": itemCount = Integer.parseInt(args[++i]); break;
+                    case "--subscriptions": subscriptionsPerBuyer = Integer.parseInt(args[++i]); break;
+                    case "--zipf": zipfExponent = Double.parseDouble(args[++i]); break;
+                    case "--rate": bidsPerSecond = Integer.parseInt(args[++i]); break;
+                    case "--duration": durationSeconds = Integer.parseInt(args[++i]); break;
+                    case "--host": host = args[++i]; break;
+                    case "--port": port = Integer.parseInt(args[++i]); break;
+                    case "--binary": binary = true; break;
+                    case "--reliable": reliable = true; break;
+                    case "--loss": lossRate = Double.parseDouble(args[++i]); break;
+                    case "--embedded": embedded = true; break;
+                    case "--store": store = args[++i]; break;
+                    case "--virtual-threads": virtualThreads = true; break;
+                    default:
+                        System.err.println("Unknown option: " + args[i]);
+                        return false;
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Invalid options: " + e.getMessage());
+            return false;
+        }
+
+        if (buyerCount < 1 || sellerCount < 1 || itemCount < 1 || bidsPerSecond < 1 || durationSeconds < 1) {
+            System.err.println("Buyers, sellers, items, rate and duration must all be at least 1");
+            return false;
+        }
+        subscriptionsPerBuyer = Math.max(1, Math.min(subscriptionsPerBuyer, itemCount));
+
+        InetAddress address = InetAddress.getByName(host);
+        if (!address.isLoopbackAddress()) {
+            System.err.println("The load generator only runs against a loopback address, not " + host);
+            return false;
+        }
+        server = new InetSocketAddress(address, port);
+        return true;
+    }
+
+    private void run() throws Exception {
+        if (embedded) startEmbeddedServer();
+
+        out.printf("Load: %d buyers, %d sellers, %d items, %d subscriptions per buyer (zipf s=%.2f), %s protocol%n",
+                buyerCount, sellerCount, itemCount, subscriptionsPerBuyer, zipfExponent, binary ? "binary" : "text");
+        out.printf("Bids: %d/s for %d s against %s%s%n", bidsPerSecond, durationSeconds, server,
+                reliable ? ", reliable delivery" : "");
+
+        openSockets();
+        Thread receiver = new Thread(this::receiveLoop, "loadgen-receiver");
+        receiver.start();
+
+        boolean ran = false;
+        try {
+            if (setUp()) {
+                driveBids();
+                Thread.sleep(1_000); // let in-flight replies and the last updates arrive
+                lossy = false;
+                bidPhaseSent = datagramsSent.get();
+                bidPhaseReceived = datagramsReceived.get();
+                ran = true;
+            }
+        } finally {
+            tearDown();
+            receiving = false;
+            receiver.join();
+            selector.close();
+        }
+        if (ran) report();
+    }
+
+    // Starts a UDPServer in this JVM on a free port, configured like AuctionServer but
+    // with a scratch data directory and limits that fit the load.
+    private void startEmbeddedServer() throws Exception {
+        System.setProperty("ppas.data.dir", Files.createTempDirectory("ppas-loadgen").toString());
+        System.setProperty("ppas.max.users", Integer.toString(buyerCount + sellerCount));
+        System.setProperty("ppas.max.items", Integer.toString(itemCount));
+        if (store.equals("mmap")) {
+            System.setProperty("ppas.auction.store", "mmap");
+        } else {
+            System.setProperty("ppas.store", store);
+        }
+        WorkerThreads.useVirtualThreads(virtualThreads); // before the server creates its executors
+        out.printf("Embedded server, %s storage, %s%n", store, virtualThreads ? "virtual threads" : "fixed handler pool");
+        try (DatagramChannel probe = DatagramChannel.open().bind(new InetSocketAddress(server.getAddress(), 0))) {
+            port = probe.socket().getLocalPort();
+        }
+        server = new InetSocketAddress(server.getAddress(), port);
+
+        // Same -Dppas.* settings and defaults as AuctionServer
+        NetworkUtils.configurePacing(Double.parseDouble(System.getProperty("ppas.pacing.rate", "20")),
+                Integer.getInteger("ppas.pacing.burst", 10));
+        UDPServer.setBidUpdateWindow(Long.getLong("ppas.bid.window.ms", 50));
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // the server logs every request
+
+        int serverPort = port;
+        Thread thread = new Thread(() -> {
+            try {
+                new UDPServer().start(serverPort);
+            } catch (IOException e) {
+                System.err.println("Embedded server failed: " + e.getMessage());
+            }
+        }, "loadgen-server");
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(500); // let the server bind
+    }
+
+    private void openSockets() throws IOException {
+        selector = Selector.open();
+        for (int i = 0; i < sellerCount; i++) sellers.add(openUser("lg" + runId + "_s" + i));
+        for (int i = 0; i < buyerCount; i++) buyers.add(openUser("lg" + runId + "_b" + i));
+        for (int i = 0; i < itemCount; i++) {
+            SimItem item = new SimItem("lg" + runId + "_item" + i);
+            items.add(item);
+            itemsByName.put(item.name, item);
+        }
+    }
+
+    private SimUser openUser(String name) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.bind(new InetSocketAddress(server.getAddress(), 0));
+        channel.configureBlocking(false);
+        SimUser user = new SimUser(name, channel);
+        channel.register(selector, SelectionKey.OP_READ, user);
+        if (reliable) {
+            user.reliability = new ReliableUdp((ds, to, frame) -> transmit(user, frame));
+            user.reliability.enable(null, server);
+        }
+        return user;
+    }
+
+    private boolean setUp() throws IOException {
+        int listingMinutes = durationSeconds / 60 + 5; // outlives the run
+        for (SimUser buyer : buyers) buyer.subscriptions = zipfSample(subscriptionsPerBuyer);
+
+        return phase("register sellers", sellerCount, i -> send(sellers.get(i), register(sellers.get(i), "seller")))
+                && phase("register buyers", buyerCount, i -> send(buyers.get(i), register(buyers.get(i), "buyer")))
+                && phase("list items", itemCount, i -> {
+                    SimUser seller = sellers.get(i % sellerCount);
+                    send(seller, String.format("list_item,%s,load test item %d,%s,%d,%s",
+                            items.get(i).name, i, price(START_CENTS), listingMinutes, seller.name));
+                })
+                && phase("subscribe buyers", buyerCount * subscriptionsPerBuyer, i -> {
+                    SimUser buyer = buyers.get(i / subscriptionsPerBuyer);
+                    SimItem item = items.get(buyer.subscriptions[i % subscriptionsPerBuyer]);
+                    send(buyer, String.format("subscribe,%d,%s,%s", i, item.name, buyer.name));
+                });
+    }
+
+    private void tearDown() {
+        try {
+            List<SimUser> everyone = new ArrayList<>(buyers);
+            everyone.addAll(sellers);
+            phase("deregister", everyone.size(), i -> send(everyone.get(i), "deregister," + everyone.get(i).name));
+        } catch (IOException e) {
+            System.err.println("Deregistration failed: " + e.getMessage());
+        }
+    }
+
+    private String register(SimUser user, String role) throws IOException {
+        InetSocketAddress local = (InetSocketAddress) user.channel.getLocalAddress();
+        return String.format("register,%s,%s,%s,%d,%d", user.name, role,
+                local.getAddress().getHostAddress(), local.getPort(), 1);
+    }
+
+    private interface PhaseStep {
+        void send(int i) throws IOException;
+    }
+
+    // Sends count setup requests, at most SETUP_WINDOW unanswered at a time, and waits
+    // for all the replies. False if a request was denied or replies stopped coming.
+    private boolean phase(String name, int count, PhaseStep step) throws IOException {
+        phaseReplies.set(0);
+        phaseDenied.set(0);
+        phaseDenial = null;
+        long start = System.nanoTime();
+
+        int sent = 0;
+        long lastProgress = System.currentTimeMillis();
+        int lastReplies = 0;
+        while (phaseReplies.get() < count) {
+            int replies = phaseReplies.get();
+            if (replies != lastReplies) {
+                lastReplies = replies;
+                lastProgress = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - lastProgress > PHASE_TIMEOUT_MS) {
+                System.err.printf("%s: only %d of %d replies arrived%n", name, replies, count);
+                return false;
+            }
+
+            if (sent < count && sent - replies < SETUP_WINDOW) {
+                step.send(sent++);
+            } else {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+
+        out.printf("%-18s %6d requests in %d ms%n", name, count, (System.nanoTime() - start) / 1_000_000);
+        if (phaseDenied.get() > 0) {
+            System.err.printf("%s: %d requests denied, e.g. \"%s\"%n", name, phaseDenied.get(), phaseDenial);
+            if (phaseDenial != null && phaseDenial.contains("Capacity")) {
+                System.err.println("Raise the server's limits with -Dppas.max.users / -Dppas.max.items, or use --embedded.");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Open-loop bid schedule: a bid is due every 1/rate seconds whether or not earlier
+    // ones were answered. A due bid goes to a random buyer without an outstanding bid.
+    private void driveBids() throws IOException {
+        long interval = 1_000_000_000L / bidsPerSecond;
+        long start = System.nanoTime();
+        long end = start + durationSeconds * 1_000_000_000L;
+        long sent = 0;
+        long skipped = 0;
+        datagramsSent.set(0);
+        datagramsReceived.set(0);
+        lossy = lossRate > 0;
+
+        for (long due = start; due < end; due += interval) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            SimUser buyer = idleBuyer();
+            if (buyer == null) {
+                skipped++;
+                continue;
+            }
+            SimItem item = items.get(buyer.subscriptions[random.nextInt(buyer.subscriptions.length)]);
+            long now = System.nanoTime();
+            long bid = item.nextBid(now);
+            buyer.bidSentAt.set(now);
+            send(buyer, String.format("bid,%d,%s,%s,%s", sent + 1, item.name, buyer.name, price(START_CENTS + bid + 1)));
+            sent++;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Sent %d bids in %.1f s (%.1f/s), %d skipped with every sampled buyer busy%n",
+                sent, seconds, sent / seconds, skipped);
+    }
+
+    private SimUser idleBuyer() {
+        long now = System.nanoTime();
+        for (int attempt = 0; attempt < 8; attempt++) {
+            SimUser buyer = buyers.get(random.nextInt(buyers.size()));
+            long sentAt = buyer.bidSentAt.get();
+            if (sentAt == 0) return buyer;
+            if (now - sentAt > BID_TIMEOUT_NS && buyer.bidSentAt.compareAndSet(sentAt, 0)) {
+                bidsLost.incrementAndGet();
+                return buyer;
+            }
+        }
+        return null;
+    }
+
+    // Picks count distinct item indexes, item k weighted 1/(k+1)^s.
+    private int[] zipfSample(int count) {
+        double[] cumulative = zipfCumulative;
+        if (cumulative == null) {
+            cumulative = new double[itemCount];
+            double sum = 0;
+            for (int k = 0; k < itemCount; k++) {
+                sum += 1.0 / Math.pow(k + 1, zipfExponent);
+                cumulative[k] = sum;
+            }
+            for (int k = 0; k < itemCount; k++) cumulative[k] /= sum;
+            zipfCumulative = cumulative;
+        }
+
+        int[] picked = new int[count];
+        int n = 0;
+        while (n < count) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            int item = Math.min(itemCount - 1, index >= 0 ? index : -index - 1);
+            boolean duplicate = false;
+            for (int i = 0; i < n; i++) duplicate |= picked[i] == item;
+            if (!duplicate) picked[n++] = item;
+        }
+        return picked;
+    }
+
+    private void send(SimUser user, String message) throws IOException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        if (binary) {
+            MessageParser.parse(message, outgoing);
+            data = BinaryProtocol.encode(outgoing);
+        }
+        if (user.reliability != null) data = user.reliability.wrap(server, data);
+        transmit(user, data);
+    }
+
+    // Every datagram the generator sends, including ReliableUdp resends and acks
+    private void transmit(SimUser user, byte[] data) throws IOException {
+        if (dropped()) return;
+        datagramsSent.incrementAndGet();
+        user.channel.send(ByteBuffer.wrap(data), server);
+    }
+
+    private boolean dropped() {
+        if (!lossy || ThreadLocalRandom.current().nextDouble() >= lossRate) return false;
+        datagramsDropped.incrementAndGet();
+        return true;
+    }
+
+    private void receiveLoop() {
+        byte[] scratch = new byte[65535];
+        ByteBuffer buffer = ByteBuffer.wrap(scratch);
+        try {
+            while (receiving) {
+                if (selector.select(100) == 0) continue;
+                for (SelectionKey key : selector.selectedKeys()) {
+                    SimUser user = (SimUser) key.attachment();
+                    DatagramChannel channel = (DatagramChannel) key.channel();
+                    while (true) {
+                        buffer.clear();
+                        if (channel.receive(buffer) == null) break;
+                        long now = System.nanoTime();
+                        int length = buffer.position();
+                        if (dropped()) continue;
+                        datagramsReceived.incrementAndGet();
+
+                        int offset = 0;
+                        if (user.reliability != null && ReliableUdp.isFrame(scratch, length)) {
+                            offset = user.reliability.receive(null, server, scratch, length);
+                            if (offset < 0) continue; // ack or duplicate
+                        }
+                        String text;
+                        if (BinaryProtocol.isBinary(scratch, offset, length - offset)) {
+                            byte[] frame = Arrays.copyOfRange(scratch, offset, length);
+                            if (BinaryProtocol.isHelloAck(frame, frame.length)) continue;
+                            text = BinaryProtocol.decodeReply(frame, frame.length);
+                        } else {
+                            text = new String(scratch, offset, length - offset, StandardCharsets.UTF_8);
+                        }
+                        handleReply(user, text, now);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Receiver stopped: " + e.getMessage());
+        }
+    }
+
+    private void handleReply(SimUser user, String text, long now) {
+        if (text.startsWith("BID_UPDATE")) {
+            recordBroadcast(text, now);
+        } else if (text.startsWith("BID-ACCEPTED")) {
+            long sentAt = user.bidSentAt.getAndSet(0);
+            if (sentAt != 0) bidLatency.add(now - sentAt);
+            bidsAccepted++;
+        } else if (text.startsWith("BID-DENIED")) {
+            user.bidSentAt.set(0);
+            bidsDenied++;
+        } else if (text.startsWith("Registered") || text.startsWith("Deregistered")
+                || text.startsWith("ITEM_LISTED") || text.startsWith("SUBSCRIBED")) {
+            phaseReplies.incrementAndGet();
+        } else if (text.startsWith("Register-denied") || text.startsWith("Deregister-denied")
+                || text.startsWith("LIST-DENIED") || text.startsWith("SUBSCRIPTION-DENIED")) {
+            phaseDenial = text;
+            phaseDenied.incrementAndGet();
+            phaseReplies.incrementAndGet();
+        }
+        // AUCTION_UPDATE and anything else is ignored
+    }
+
+    // BID_UPDATE,RQ#n,item,price,bidder,minutes: the price identifies the bid that set it
+    private void recordBroadcast(String text, long now) {
+        int itemStart = text.indexOf(',', text.indexOf(',') + 1) + 1;
+        int priceStart = text.indexOf(',', itemStart) + 1;
+        int priceEnd = text.indexOf(',', priceStart);
+        if (itemStart == 0 || priceStart == 0 || priceEnd < 0) return;
+
+        SimItem item = itemsByName.get(text.substring(itemStart, priceStart - 1));
+        long sentAt = 0;
+        if (item != null) {
+            try {
+                long cents = Math.round(Double.parseDouble(text.substring(priceStart, priceEnd)) * 100);
+                sentAt = item.sentAt(cents - START_CENTS - 1);
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        }
+        if (sentAt != 0) {
+            broadcastLag.add(now - sentAt);
+        } else {
+            unmatchedUpdates++;
+        }
+    }
+
+    private void report() {
+        out.println();
+        out.printf("Bids accepted %d, denied %d, lost %d%n", bidsAccepted, bidsDenied, bidsLost.get());
+        out.printf("Datagrams while bidding: sent %d, received %d, dropped %d (%.1f%% loss simulated)%n",
+                bidPhaseSent, bidPhaseReceived, datagramsDropped.get(), lossRate * 100);
+        out.println("bid -> BID-ACCEPTED  " + bidLatency.summary());
+        out.println("broadcast lag        " + broadcastLag.summary());
+        if (unmatchedUpdates > 0) out.println("(" + unmatchedUpdates + " BID_UPDATEs did not match a sent bid)");
+        if (embedded) {
+            out.println();
+            Metrics.dump(out); // the server's side of the same run
+        }
+    }
+
+    private static String price(long cents) {
+        return String.format("%d.%02d", cents / 100, cents % 100);
+    }
+}
@@ -1,107 +1,173 @@
 package UDPFunctions;
 
 import TCPFunctions.TCPConnection;
+import Utils.AccountDirectory;
+import Utils.AccountStore;
+import Utils.AuctionBook;
+import Utils.AuctionScheduler;
+import Utils.AuctionStore;
+import Utils.BinaryProtocol;
+import Utils.BufferPool;
 import Utils.RegistrationInfo;
 import Utils.ItemRegistry;
-import Utils.FileUtils;
 import Utils.NetworkUtils;
+import Utils.Log;
 import Utils.MessageParser;
+import Utils.Metrics;
+import Utils.ReliableUdp;
+import Utils.Reply;
+import Utils.Request;
+import Utils.RequestNumberAllocator;
+import Utils.ResponseCache;
+import Utils.Storage;
+import Utils.StripedLocks;
+import Utils.SubscriptionIndex;
+import Utils.SubscriptionStore;
+import Utils.WorkerThreads;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class UDPServer {
 
-    private static final int MAX_USERS = 10;
-    private static final String FILE_PATH = "src/resources/accounts.txt";
-    private static final String ITEM_FILE = "src/resources/items.txt";
-    private static final String SUBSCRIPTION_FILE = "src/resources/subscriptions.txt";
-    private static final String ACTIVE_AUCTIONS_FILE = "src/resources/activeAuctions.txt";
-
-
-    private static AtomicInteger requestCounter = new AtomicInteger(FileUtils.readLastRequestNumber("src/resources/last_rq.txt") + 1);
-    private static ReentrantLock auctionLock = new ReentrantLock();
+    // Overridable with -Dppas.max.users / -Dppas.max.items, e.g. for load tests
+    private static final int MAX_USERS = Integer.getInteger("ppas.max.users", 10);
+    private static final int MAX_ITEMS = Integer.getInteger("ppas.max.items", 10);
+    private static final int RECEIVE_BUFFERS = 64;
+    // Where the server keeps its files; -Dppas.data.dir points a test or benchmark run elsewhere
+    private static final String DATA_DIR = System.getProperty("ppas.data.dir", "src/resources");
+    private static final String LAST_RQ_FILE = DATA_DIR + "/last_rq.txt";
+
+
+    private static final RequestNumberAllocator requestNumbers =
+            new RequestNumberAllocator(LAST_RQ_FILE, Integer.getInteger("ppas.rq.block", 1000));
+    private static final StripedLocks itemLocks = new StripedLocks(64);
+    private static final ReentrantLock listingLock = new ReentrantLock(); // guards the MAX_ITEMS check
+    private static final AuctionBook auctionBook = new AuctionBook();
+    private static final AccountDirectory accounts = new AccountDirectory();
+    private static final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    // -Dppas.store picks the backend (log, text or memory); -Dppas.auction.store=mmap keeps
+    // auctions in a memory-mapped slot file, forced per write with -Dppas.auction.force=true
+    private static final Storage storage = openStorage();
+    private static final AccountStore accountStore = storage.accounts;
+    private static final AuctionStore auctionStore = storage.auctions;
+    private static final SubscriptionStore subscriptionStore = storage.subscriptions;
+    private static final long AUCTION_UPDATE_INTERVAL_MS = 30_000;
+    private static final long AUCTION_END_RETRY_MS = 5_000;
+    private static final AuctionScheduler auctionScheduler = new AuctionScheduler();
+    private static final ExecutorService auctionWorkers = WorkerThreads.newTaskExecutor();
+    private static final Set<String> pendingBidUpdates = ConcurrentHashMap.newKeySet(); // items with an unsent BID_UPDATE
+    private static volatile long bidUpdateWindowMs = 50;
+    private static final ResponseCache responses = new ResponseCache(
+            Integer.getInteger("ppas.replay.entries", 10_000), Long.getLong("ppas.replay.ttl.ms", 30_000));
+    private static final ThreadLocal<Request> requests = ThreadLocal.withInitial(Request::new); // one per handler thread
+
+    // Time from a packet reaching its handler thread to its reply being queued, per opcode
+    private static final Metrics.Histogram[] requestLatency = new Metrics.Histogram[Request.BYE + 1];
+    private static final Metrics.Histogram auctionEnd = Metrics.histogram("auction.end"); // includes the TCP exchanges
+
+    static {
+        for (int opcode = Request.HELLO; opcode < requestLatency.length; opcode++) {
+            requestLatency[opcode] = Metrics.histogram("request." + Request.opcodeName(opcode));
+        }
+        Metrics.gauge("auctions.live", auctionBook::size);
+        Metrics.gauge("outbound.queue.depth", NetworkUtils::outboundQueueDepth);
+        Metrics.gauge("replay.entries", responses::size);
+    }
 
-    public void placeBid(String message, DatagramSocket ds, InetAddress clientIP, int clientPort) {
-        String[] tokens = message.split(",");
-        if (tokens.length != 4) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-DENIED RQ#UNKNOWN Reason: Invalid format");
-            return;
+    private static Storage openStorage() {
+        Storage opened;
+        try {
+            opened = Storage.open(System.getProperty("ppas.store", "log"), System.getProperty("ppas.auction.store"),
+                    DATA_DIR, Boolean.getBoolean("ppas.auction.force"));
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError("Could not open storage: " + e.getMessage());
         }
+        opened.load(accounts, auctionBook, subscriptions);
+        return opened;
+    }
 
-        String rqNum = tokens[0].trim();  // Client's RQ#
-        String itemName = tokens[1].trim();
-        String bidderName = tokens[2].trim();
-        double bidAmount;
+    public void placeBid(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        String itemName = req.getItem();
+        String bidderName = req.getUser();
+        double bidAmount = req.getAmount();
 
-        try {
-            bidAmount = Double.parseDouble(tokens[3].trim());
-        } catch (NumberFormatException e) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-DENIED RQ#" + rqNum + " Reason: Invalid bid amount");
+        RegistrationInfo bidderInfo = accounts.get(bidderName);
+        if (bidderInfo == null || !subscriptions.isSubscribed(itemName, bidderInfo)) {
+            respond(ds, clientIP, clientPort, req, Reply.BID_DENIED, "You must subscribe to this item before bidding");
             return;
         }
-
-        RegistrationInfo bidderInfo = FileUtils.getUserByName(FILE_PATH, bidderName);
-        if (bidderInfo == null || !FileUtils.isAlreadySubscribed(SUBSCRIPTION_FILE, itemName, bidderInfo)) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort,
-                    "BID-DENIED RQ#" + rqNum + " Reason: You must subscribe to this item before bidding");
+        if (!auctionStore.canStoreName(bidderName)) {
+            respond(ds, clientIP, clientPort, req, Reply.BID_DENIED, "Bidder name too long");
             return;
         }
 
-        auctionLock.lock();
+        // Only the price comparison and its log record happen under the item's lock;
+        // the reply and the broadcast go out after it is released.
+        ItemRegistry item;
+        boolean accepted = false;
+        ReentrantLock itemLock = itemLocks.lockFor(itemName);
+        Metrics.lock(itemLock);
         try {
-            String auctionLine = FileUtils.getAuctionLine(ACTIVE_AUCTIONS_FILE, itemName);
-            if (auctionLine == null) {
-                System.out.println("DEBUG: Received bid for item '" + itemName + "', but auction not found.");
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-DENIED RQ#" + rqNum + " Reason: Item not found");
-                return;
+            item = auctionBook.get(itemName);
+            if (item != null && item.placeBid(bidderName, bidAmount)) {
+                auctionStore.bidPlaced(item);
+                accepted = true;
             }
+        } finally {
+            itemLock.unlock();
+        }
 
-            String[] auctionTokens = auctionLine.split(",");
-            if (auctionTokens.length != 10) {
-                System.err.println("DEBUG: Auction line for " + itemName + " is malformed.");
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-DENIED RQ#" + rqNum + " Reason: Auction data corrupted");
-                return;
-            }
+        if (item == null) {
+            Log.debug("Received bid for item '{}', but auction not found", itemName);
+            respond(ds, clientIP, clientPort, req, Reply.BID_DENIED, "Item not found");
+            return;
+        }
+        if (!accepted) {
+            respond(ds, clientIP, clientPort, req, Reply.BID_DENIED, "Bid too low");
+            return;
+        }
 
-            double currentBid = Double.parseDouble(auctionTokens[4].trim());
-            if (bidAmount <= currentBid) {
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-DENIED RQ#" + rqNum + " Reason: Bid too low");
-                return;
-            }
+        respond(ds, clientIP, clientPort, req, Reply.BID_ACCEPTED, null, () -> queueBidUpdate(item.getItemName(), ds));
+    }
 
-            String updatedAuctionLine = String.format("%s,%s,%s,%.2f,%.2f,%s,%s,%s,%s,RQ#%s",
-                    auctionTokens[0].trim(),
-                    auctionTokens[1].trim(),
-                    auctionTokens[2].trim(),
-                    Double.parseDouble(auctionTokens[3].trim()),
-                    bidAmount,
-                    bidderName,
-                    auctionTokens[6].trim(),
-                    auctionTokens[7].trim(),
-                    auctionTokens[8].trim(),
-                    auctionTokens[9].trim().replace("RQ#", "")
-            );
-
-            if (FileUtils.updateAuctionLine(ACTIVE_AUCTIONS_FILE, itemName, updatedAuctionLine)) {
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-ACCEPTED RQ#" + rqNum);
-                ItemRegistry updatedItem = ItemRegistry.fromCSV(updatedAuctionLine);
-                broadcastBidUpdate(updatedItem, ds);
+    // Bids during a bid storm are coalesced: at most one BID_UPDATE per item goes out
+    // per window, carrying whatever price and leader the item has when it flushes.
+    // A window of 0 broadcasts every accepted bid immediately.
+    public static void setBidUpdateWindow(long windowMs) {
+        bidUpdateWindowMs = windowMs;
+    }
 
-            } else {
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "BID-DENIED RQ#" + rqNum + " Reason: File update error");
-            }
-        } finally {
-            auctionLock.unlock();
+    private void queueBidUpdate(String itemName, DatagramSocket ds) {
+        long window = bidUpdateWindowMs;
+        if (window <= 0) {
+            ItemRegistry item = auctionBook.get(itemName);
+            if (item != null) broadcastBidUpdate(item, ds);
+            return;
         }
+
+        String key = itemName.toLowerCase();
+        if (!pendingBidUpdates.add(key)) return; // a flush is already scheduled for this window
+
+        auctionScheduler.after(window, () -> {
+            // Clear first so a bid arriving during the broadcast schedules the next window
+            pendingBidUpdates.remove(key);
+            ItemRegistry item = auctionBook.get(itemName);
+            if (item != null) broadcastBidUpdate(item, ds); // auction may have ended meanwhile
+        });
     }
 
     public void broadcastBidUpdate(ItemRegistry item, DatagramSocket ds) {
@@ -112,182 +178,129 @@ public class UDPServer {
                 item.getHighestBidder(),
                 item.getTimeRemaining() / 60000);
 
-        List<RegistrationInfo> subscribers = FileUtils.getSubscribersForItem(SUBSCRIPTION_FILE, item.getItemName());
-
-        for (RegistrationInfo buyer : subscribers) {
-            try {
-                InetAddress address = InetAddress.getByName(buyer.getIpAddress());
-                NetworkUtils.sendMessageToClient(ds, address, buyer.getUdpPort(), message);
-            } catch (Exception e) {
-                System.err.println("Error sending BID_UPDATE to " + buyer.getUniqueName());
-            }
-        }
+        Collection<RegistrationInfo> subscribers = subscriptions.subscribersOf(item.getItemName());
 
-        // Optional: Notify seller too (you’d need to store who the seller is during list_item)
-        RegistrationInfo seller = FileUtils.getUserByName(FILE_PATH, item.getSellerName());
-        if (seller != null) {
-            try {
-                InetAddress sellerAddress = InetAddress.getByName(seller.getIpAddress());
-                NetworkUtils.sendMessageToClient(ds, sellerAddress, seller.getUdpPort(), message);
-            } catch (Exception e) {
-                System.err.println("Error sending BID_UPDATE to seller " + seller.getUniqueName());
-            }
-        }
+        // Subscribers and the seller get the same encoded update
+        RegistrationInfo seller = accounts.get(item.getSellerName());
+        NetworkUtils.broadcast(ds, subscribers, seller, message);
     }
 
-    public void handleAcceptNegotiation(String message, DatagramSocket ds, InetAddress clientIP, int clientPort) {
-        String[] tokens = message.split("\\s+");
-        if (tokens.length != 4) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "ACCEPT-DENIED Reason: Invalid format");
-            return;
-        }
+    public void handleAcceptNegotiation(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        String itemName = req.getItem();
+        double newPrice = req.getAmount();
 
-        String rqTag = tokens[1].trim(); // RQ#
-        String itemName = tokens[2].trim();
-        double newPrice;
-
-        try {
-            newPrice = Double.parseDouble(tokens[3].trim());
-        } catch (NumberFormatException e) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "ACCEPT-DENIED " + rqTag + " Reason: Invalid price");
-            return;
-        }
-
-        auctionLock.lock();
+        ItemRegistry item;
+        String messageToSubs;
+        ReentrantLock itemLock = itemLocks.lockFor(itemName);
+        Metrics.lock(itemLock);
         try {
-            String auctionLine = FileUtils.getAuctionLine(ACTIVE_AUCTIONS_FILE, itemName);
-            if (auctionLine == null) {
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "ACCEPT-DENIED " + rqTag + " Reason: Item not found");
+            item = auctionBook.get(itemName);
+            if (item == null) {
+                respond(ds, clientIP, clientPort, req, Reply.ACCEPT_DENIED, "Item not found");
                 return;
             }
 
-            ItemRegistry item = ItemRegistry.fromCSV(auctionLine);
             item.adjustPrice(newPrice); // Update both startingPrice & currentPrice
-            FileUtils.updateAuctionLine(ACTIVE_AUCTIONS_FILE, itemName, item.toCSV());
-
-            // Notify all subscribed buyers of new price
-            List<RegistrationInfo> subs = FileUtils.getSubscribersForItem(SUBSCRIPTION_FILE, itemName);
-            String messageToSubs = String.format("PRICE_ADJUSTMENT RQ#%d %s %.2f %d",
+            auctionStore.priceAdjusted(item);
+            messageToSubs = String.format("PRICE_ADJUSTMENT RQ#%d %s %.2f %d",
                     item.getRequestNumber(), item.getItemName(), item.getCurrentPrice(), item.getTimeRemaining() / 60000);
-            for (RegistrationInfo buyer : subs) {
-                try {
-                    InetAddress address = InetAddress.getByName(buyer.getIpAddress());
-                    NetworkUtils.sendMessageToClient(ds, address, buyer.getUdpPort(), messageToSubs);
-                } catch (Exception e) {
-                    System.err.println("Error sending PRICE_ADJUSTMENT to " + buyer.getUniqueName());
-                }
-            }
-
-            // Confirmation to seller
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "ACCEPTED " + rqTag);
         } finally {
-            auctionLock.unlock();
+            itemLock.unlock();
         }
-    }
 
-    public void handleRefuseNegotiation(String message, DatagramSocket ds, InetAddress clientIP, int clientPort) {
-        String[] tokens = message.split("\\s+");
-        if (tokens.length < 3) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "REFUSE-DENIED Reason: Invalid format");
-            return;
-        }
+        // Confirmation to seller, then notify all subscribed buyers of the new price
+        respond(ds, clientIP, clientPort, req, Reply.ACCEPTED, null,
+                () -> NetworkUtils.broadcast(ds, subscriptions.subscribersOf(itemName), null, messageToSubs));
+    }
 
-        String rqTag = tokens[1].trim(); // RQ#
-        NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "REFUSED " + rqTag);
+    public void handleRefuseNegotiation(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        respond(ds, clientIP, clientPort, req, Reply.REFUSED, null);
     }
 
-    public void startAuctionBroadcast(ItemRegistry item, DatagramSocket ds) {
-        long auctionEndTime = System.currentTimeMillis() + item.getDuration();
+    public void scheduleAuction(ItemRegistry item, DatagramSocket ds) {
+        auctionScheduler.schedule(item, AUCTION_UPDATE_INTERVAL_MS,
+                () -> sendAuctionUpdate(item.getItemName(), ds),
+                () -> checkNegotiation(item.getItemName(), ds),
+                () -> {
+                    ItemRegistry endedItem = auctionBook.get(item.getItemName());
+                    if (endedItem == null) return; // item removed
+                    // endAuction blocks on TCP exchanges with the winner and seller, so keep it off the timer threads
+                    auctionWorkers.execute(() -> finishAuction(endedItem, ds));
+                });
+    }
 
-        while (System.currentTimeMillis() < auctionEndTime) {
-            try {
-                Thread.sleep(30_000);  // Sleep 30s before sending update
-
-                String auctionLine = FileUtils.getAuctionLine("src/resources/activeAuctions.txt", item.getItemName());
-                if (auctionLine == null) return; // item removed
-
-                // Create updated item object FIRST
-                ItemRegistry updatedItem = ItemRegistry.fromCSV(auctionLine);
-
-                // Check negotiation conditions
-                if (!updatedItem.isNegotiationSent()
-                        && updatedItem.getHighestBidder().equals("None")
-                        && updatedItem.getTimeRemaining() <= (updatedItem.getDuration() / 2)) {
-
-                    String negotiateMessage = String.format(
-                            "NEGOTIATE_REQ RQ#%d %s %.2f %d",
-                            updatedItem.getRequestNumber(),
-                            updatedItem.getItemName(),
-                            updatedItem.getCurrentPrice(),
-                            updatedItem.getTimeRemaining() / 60000
-                    );
-
-                    RegistrationInfo seller = FileUtils.getUserByName(FILE_PATH, updatedItem.getSellerName());
-                    if (seller != null) {
-                        try {
-                            InetAddress sellerAddress = InetAddress.getByName(seller.getIpAddress());
-                            NetworkUtils.sendMessageToClient(ds, sellerAddress, seller.getUdpPort(), negotiateMessage);
-                            System.out.println(" Sent NEGOTIATE_REQ to seller: " + seller.getUniqueName());
-                        } catch (Exception e) {
-                            System.err.println("Error sending negotiation request to seller: " + e.getMessage());
-                        }
-                    }
+    private void finishAuction(ItemRegistry item, DatagramSocket ds) {
+        long start = System.nanoTime();
+        try {
+            endAuction(item, ds);
+        } catch (IllegalStateException e) {
+            // No RQ# could be reserved; nothing has been sent yet, so try the whole end again later
+            Log.error("Could not end auction for {}: {}", item.getItemName(), e.getMessage());
+            auctionScheduler.after(AUCTION_END_RETRY_MS, () -> auctionWorkers.execute(() -> finishAuction(item, ds)));
+            return;
+        }
+        auctionEnd.recordSince(start);
+    }
 
-                    // Mark negotiation as sent and persist it
-                    updatedItem.setNegotiationSent(true);
-                    FileUtils.updateAuctionLine(ACTIVE_AUCTIONS_FILE, updatedItem.getItemName(), updatedItem.toCSV());
-                }
+    private void checkNegotiation(String itemName, DatagramSocket ds) {
+        ItemRegistry updatedItem = auctionBook.get(itemName);
+        if (updatedItem == null) return; // item removed
 
-                // Broadcast AUCTION_UPDATE
-                List<RegistrationInfo> subscribedBuyers = FileUtils.getSubscribersForItem("src/resources/subscriptions.txt", item.getItemName());
+        // Check negotiation conditions, and mark negotiation as sent and persist it
+        ReentrantLock itemLock = itemLocks.lockFor(itemName);
+        Metrics.lock(itemLock);
+        try {
+            if (updatedItem.isNegotiationSent() || !updatedItem.getHighestBidder().equals("None")) return;
 
-                String message = String.format("AUCTION_UPDATE RQ#%d,Item: %s,Desc: %s,Price: %.2f,TimeLeft(min): %d",
-                        updatedItem.getRequestNumber(),
-                        updatedItem.getItemName(),
-                        updatedItem.getDescription(),
-                        updatedItem.getCurrentPrice(),
-                        updatedItem.getTimeRemaining() / 60000
-                );
+            updatedItem.setNegotiationSent(true);
+            auctionStore.negotiationSent(updatedItem);
+        } finally {
+            itemLock.unlock();
+        }
 
-                for (RegistrationInfo buyer : subscribedBuyers) {
-                    try {
-                        InetAddress address = InetAddress.getByName(buyer.getIpAddress());
-                        NetworkUtils.sendMessageToClient(ds, address, buyer.getUdpPort(), message);
-                    } catch (UnknownHostException e) {
-                        System.err.println("Error: Unable to resolve IP for " + buyer.getUniqueName());
-                    }
-                }
+        String negotiateMessage = String.format(
+                "NEGOTIATE_REQ RQ#%d %s %.2f %d",
+                updatedItem.getRequestNumber(),
+                updatedItem.getItemName(),
+                updatedItem.getCurrentPrice(),
+                updatedItem.getTimeRemaining() / 60000
+        );
 
-                RegistrationInfo seller = FileUtils.getUserByName(FILE_PATH, updatedItem.getSellerName());
-                if (seller != null) {
-                    try {
-                        InetAddress sellerAddress = InetAddress.getByName(seller.getIpAddress());
-                        NetworkUtils.sendMessageToClient(ds, sellerAddress, seller.getUdpPort(), message);
-                        System.out.println("Sent AUCTION_UPDATE to seller: " + seller.getUniqueName());
-                    } catch (Exception e) {
-                        System.err.println("Error sending auction update to seller: " + e.getMessage());
-                    }
-                }
-            } catch (InterruptedException e) {
-                System.err.println("Auction broadcast interrupted: " + e.getMessage());
-            }
+        RegistrationInfo seller = accounts.get(updatedItem.getSellerName());
+        if (seller != null) {
+            NetworkUtils.sendMessageToClient(ds, seller.getUdpAddress(), negotiateMessage);
+            Log.debug("Sent NEGOTIATE_REQ to seller: {}", seller.getUniqueName());
         }
+    }
 
-        String auctionLine = FileUtils.getAuctionLine("src/resources/activeAuctions.txt", item.getItemName());
-        if (auctionLine == null) return; // item removed
+    private void sendAuctionUpdate(String itemName, DatagramSocket ds) {
+        ItemRegistry updatedItem = auctionBook.get(itemName);
+        if (updatedItem == null) return; // item removed
 
-        // Create updated item object FIRST
-        ItemRegistry updatedItem = ItemRegistry.fromCSV(auctionLine);
+        // Broadcast AUCTION_UPDATE
+        Collection<RegistrationInfo> subscribedBuyers = subscriptions.subscribersOf(itemName);
 
-        endAuction(updatedItem, ds);
+        String message = String.format("AUCTION_UPDATE RQ#%d,Item: %s,Desc: %s,Price: %.2f,TimeLeft(min): %d",
+                updatedItem.getRequestNumber(),
+                updatedItem.getItemName(),
+                updatedItem.getDescription(),
+                updatedItem.getCurrentPrice(),
+                updatedItem.getTimeRemaining() / 60000
+        );
+
+        RegistrationInfo seller = accounts.get(updatedItem.getSellerName());
+        NetworkUtils.broadcast(ds, subscribedBuyers, seller, message);
+        if (seller != null) {
+            Log.debug("Sent AUCTION_UPDATE to seller: {}", seller.getUniqueName());
+        }
     }
 
     public void endAuction(ItemRegistry item, DatagramSocket ds) {
-        // Generate new RQ# for the purchase finalization
-        int finalizeRqNum = requestCounter.getAndIncrement();
+        // Generate new RQ# for the purchase finalization; throws before anything is sent if none can be reserved
+        int finalizeRqNum = requestNumbers.next();
         String informReq = String.format("INFORM_Req,RQ#%d,%s,%.2f", finalizeRqNum, item.getItemName(), item.getCurrentPrice());
 
-        List<RegistrationInfo> subscribedBuyers = FileUtils.getSubscribersForItem(SUBSCRIPTION_FILE, item.getItemName());
+        Collection<RegistrationInfo> subscribedBuyers = subscriptions.subscribersOf(item.getItemName());
 
         String message = String.format("AUCTION_ENDED FIRST ANNOUNCEMENT %s %s %s %.2f %s %d",
                 item.getRequestNumber(),
@@ -300,18 +313,11 @@ public class UDPServer {
 
 
         // Notify all subscribed buyers about the auction result
-        for (RegistrationInfo buyer : subscribedBuyers) {
-            try {
-                InetAddress address = InetAddress.getByName(buyer.getIpAddress());
-                NetworkUtils.sendMessageToClient(ds, address, buyer.getUdpPort(), message);
-            } catch (UnknownHostException e) {
-                System.err.println("Error: Unable to resolve IP address for buyer " + buyer.getUniqueName() + ": " + buyer.getIpAddress());
-            }
-        }
+        NetworkUtils.broadcast(ds, subscribedBuyers, null, message);
 
         // Notify the seller over TCP
-        RegistrationInfo seller = FileUtils.getUserByName(FILE_PATH, item.getSellerName());
-        RegistrationInfo highestBidder = FileUtils.getUserByName(FILE_PATH, item.getHighestBidder());
+        RegistrationInfo seller = accounts.get(item.getSellerName());
+        RegistrationInfo highestBidder = accounts.get(item.getHighestBidder());
 
         boolean saleValid = item.getCurrentPrice() >= item.getStartingPrice() && !item.getHighestBidder().equalsIgnoreCase("None");
 
@@ -359,16 +365,16 @@ public class UDPServer {
                     double serverCut = finalPrice * 0.10;
                     double sellerCredit = finalPrice * 0.90;
 
-                    System.out.println("[PAYMENT] Charging buyer's card: $" + String.format("%.2f", finalPrice));
-                    System.out.println("[PAYMENT] Crediting seller with $" + String.format("%.2f", sellerCredit));
-                    System.out.println("[PAYMENT] Server keeps $" + String.format("%.2f", serverCut));
+                    Log.info("[PAYMENT] Charging buyer's card: ${}", String.format("%.2f", finalPrice));
+                    Log.info("[PAYMENT] Crediting seller with ${}", String.format("%.2f", sellerCredit));
+                    Log.info("[PAYMENT] Server keeps ${}", String.format("%.2f", serverCut));
 
                     if (finalPrice <= 0 || buyerName.equalsIgnoreCase("None")) {
                         throw new Exception("Simulated transaction failure");
                     }
 
                 } catch (Exception e) {
-                    System.err.println("Transaction failed: " + e.getMessage());
+                    Log.warn("Transaction failed: {}", e.getMessage());
                     informBuyer.sendMessage("CANCEL,RQ#" + finalizeRqNum + ",Reason: Transaction failed");
                     informSeller.sendMessage("CANCEL,RQ#" + finalizeRqNum + ",Reason: Transaction failed");
                     informBuyer.close();
@@ -382,7 +388,7 @@ public class UDPServer {
                 informBuyer.close();
 
             } catch (IOException e) {
-                System.err.println("Error finalizing transaction: " + e.getMessage());
+                Log.error("Error finalizing transaction: {}", e.getMessage());
             }
         } else {
             if (seller != null) {
@@ -397,173 +403,146 @@ public class UDPServer {
                     tcpSellerConnection.sendMessage(noSale);
                     tcpSellerConnection.close();
                 } catch (IOException e) {
-                    System.err.println("Error notifying seller of no sale: " + e.getMessage());
+                    Log.error("Error notifying seller of no sale: {}", e.getMessage());
                 }
             }
         }
 
-        // Remove auction from file under lock
-        auctionLock.lock();
+        // Remove auction from the book under its item lock
+        boolean removed;
+        ReentrantLock itemLock = itemLocks.lockFor(item.getItemName());
+        Metrics.lock(itemLock);
         try {
-            if (FileUtils.removeItemFromFile(ACTIVE_AUCTIONS_FILE, item.getItemName())) {
-                System.out.println("DEBUG: Auction for item '" + item.getItemName() + "' removed from file.");
-            } else {
-                System.err.println("DEBUG: Failed to remove auction for item '" + item.getItemName() + "'.");
-            }
+            removed = auctionBook.remove(item.getItemName()) != null;
+            if (removed) auctionStore.ended(item);
         } finally {
-            auctionLock.unlock();
+            itemLock.unlock();
+        }
+        if (removed) {
+            Log.info("Auction for item '{}' removed", item.getItemName());
+        } else {
+            Log.warn("Failed to remove auction for item '{}'", item.getItemName());
         }
     }
 
-    public void registerAccount(RegistrationInfo regInfo, int requestNumber, DatagramSocket ds, DatagramPacket dpReceive) {
-        String confirmationMessage;
-        boolean success = true;
-
-        if (FileUtils.isCapacityReached(FILE_PATH, MAX_USERS)) {
-            confirmationMessage = "Register-denied RQ#" + requestNumber + " Reason: Capacity reached";
-            success = false;
-        } else if (FileUtils.isDuplicateName(FILE_PATH, regInfo.getUniqueName())) {
-            confirmationMessage = "Register-denied RQ#" + requestNumber + " Reason: Duplicate name";
-            success = false;
-        }else if (!regInfo.getRole().equalsIgnoreCase("buyer") && !regInfo.getRole().equalsIgnoreCase("seller")) {
-            confirmationMessage = "Register-denied RQ#" + requestNumber + " Reason: Invalid role";
-            success = false;
+    public void registerAccount(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        int requestNumber = req.getRequestNumber();
+        String denial = null;
+
+        if (accounts.isCapacityReached(MAX_USERS)) {
+            denial = "Capacity reached";
+        } else if (accounts.contains(req.getUser())) {
+            denial = "Duplicate name";
+        } else if (!req.getRole().equalsIgnoreCase("buyer") && !req.getRole().equalsIgnoreCase("seller")) {
+            denial = "Invalid role";
         } else {
-            String entry = String.format("%s,%s,%s,%d,%d,RQ#%d",
-                    regInfo.getUniqueName(),
-                    regInfo.getRole(),
-                    dpReceive.getAddress().getHostAddress(),
-                    dpReceive.getPort(),
-                    regInfo.getTcpPort(),
-                    requestNumber);
-            if (FileUtils.appendLineToFile(FILE_PATH, entry)) {
-                System.out.println("Account registered: " + entry);
-                confirmationMessage = "Registered,RQ#" + requestNumber;
+            // Replies and broadcasts go to the endpoint the registration came from
+            RegistrationInfo account = new RegistrationInfo(req.getUser(), req.getRole(),
+                    new InetSocketAddress(clientIP, clientPort), req.getTcpPort());
+            if (accounts.add(account, requestNumber)) {
+                accountStore.registered(account, requestNumber);
+                Log.info("Account registered: {}", AccountDirectory.toCSV(account, requestNumber));
             } else {
-                confirmationMessage = "Register-denied RQ#" + requestNumber + " Reason: Internal server error";
-                success = false;
+                denial = "Duplicate name";
             }
         }
 
-        InetAddress clientIP = dpReceive.getAddress();
-        int clientPort = dpReceive.getPort();
-
-        NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, confirmationMessage);
-
-        if (!success) {
-            System.err.println("Registration failed for user: " + regInfo.getUniqueName());
+        if (denial == null) {
+            respond(ds, clientIP, clientPort, req, Reply.REGISTERED, null);
+        } else {
+            respond(ds, clientIP, clientPort, req, Reply.REGISTER_DENIED, denial);
+            Log.info("Registration failed for user {}: {}", req.getUser(), denial);
         }
     }
 
-    public void deregisterAccount(String uniqueName, DatagramSocket ds, InetAddress clientIP, int clientPort, int requestNumber) {
-        String confirmationMessage = FileUtils.removeAccountByName(FILE_PATH, uniqueName, requestNumber);
-        NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, confirmationMessage);
-    }
-
-    public void listItem(String message, int requestNumber, DatagramSocket ds, InetAddress clientIP, int clientPort) {
-        String[] tokens = message.split(",");
-        if (tokens.length != 6) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "LIST-DENIED RQ#" + requestNumber + " Reason: Invalid format");
-            return;
-        }
-
-        String itemName = tokens[1].trim();
-        String description = tokens[2].trim();
-        double startingPrice;
-        long duration;
-
-        try {
-            startingPrice = Double.parseDouble(tokens[3].trim());
-            long durationMinutes = Long.parseLong(tokens[4].trim());
-            duration = durationMinutes * 60_000;
-        } catch (NumberFormatException e) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "LIST-DENIED RQ#" + requestNumber + " Reason: Invalid price or duration");
-            return;
-        }
-
-        if (FileUtils.isItemLimitReached(ACTIVE_AUCTIONS_FILE, 10)) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort,
-                    "LIST-DENIED RQ#" + requestNumber + " Reason: Item limit reached");
-            return;
-        }
-        if (FileUtils.isDuplicateItem(ACTIVE_AUCTIONS_FILE, itemName)) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "LIST-DENIED RQ#" + requestNumber + " Reason: Item already listed");
-            return;
+    public void deregisterAccount(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        String uniqueName = req.getUser();
+        if (accounts.remove(uniqueName)) {
+            subscriptions.removeBuyer(uniqueName);
+            accountStore.deregistered(uniqueName);
+            subscriptionStore.buyerRemoved(uniqueName);
+            respond(ds, clientIP, clientPort, req, Reply.DEREGISTERED, null);
+        } else {
+            respond(ds, clientIP, clientPort, req, Reply.DEREGISTER_DENIED, "Account not found");
         }
+    }
 
-        String sellerName = tokens[5].trim();
+    public void listItem(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        int requestNumber = req.getRequestNumber();
+        String itemName = req.getItem();
+        String description = req.getDescription();
+        double startingPrice = req.getAmount();
+        long duration = req.getDurationMinutes() * 60_000;
+        String sellerName = req.getUser();
 
         // Create new auction item. Its toCSV() should return a CSV line:
         // itemName,description,startingPrice,currentBid,duration,RQ#requestNumber
         ItemRegistry newItem = new ItemRegistry(itemName, description, startingPrice, duration, requestNumber, sellerName);
 
-        // Write the new auction to the file under lock.
-        auctionLock.lock();
+        // The limit check spans all items, so listing has its own lock; the item lock keeps
+        // the LIST record ordered against an END for an earlier auction of the same name.
+        ReentrantLock itemLock = itemLocks.lockFor(itemName);
+        Metrics.lock(listingLock);
+        Metrics.lock(itemLock);
         try {
-            if (FileUtils.appendLineToFile(ACTIVE_AUCTIONS_FILE, newItem.toCSV())) {
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "ITEM_LISTED RQ#" + requestNumber);
-                broadcastAuctionAnnouncement(newItem.toCSV(), ds);
-                // Start auction broadcast in a new thread so it doesn't block the main server loop.
-                new Thread(() -> startAuctionBroadcast(newItem, ds)).start();
-            } else {
-                NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "LIST-DENIED RQ#" + requestNumber + " Reason: Internal server error");
+            if (auctionBook.size() >= MAX_ITEMS) {
+                respond(ds, clientIP, clientPort, req, Reply.LIST_DENIED, "Item limit reached");
+                return;
+            }
+            if (!auctionStore.canStore(newItem)) {
+                respond(ds, clientIP, clientPort, req, Reply.LIST_DENIED, "Name or description too long");
+                return;
             }
+            if (!auctionBook.add(newItem)) {
+                respond(ds, clientIP, clientPort, req, Reply.LIST_DENIED, "Item already listed");
+                return;
+            }
+            auctionStore.listed(newItem);
         } finally {
-            auctionLock.unlock();
+            itemLock.unlock();
+            listingLock.unlock();
         }
-    }
 
-    public void handleSubscribe(String message, DatagramSocket ds, InetAddress clientIP, int clientPort) {
-        String[] tokens = message.split(",", 4);
-        if (tokens.length != 4) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "SUBSCRIPTION-DENIED RQ#UNKNOWN Reason: Invalid format");
-            return;
-        }
+        respond(ds, clientIP, clientPort, req, Reply.ITEM_LISTED, null, () -> {
+            broadcastAuctionAnnouncement(newItem.toCSV(), ds);
+            scheduleAuction(newItem, ds);
+        });
+    }
 
-        String rqNum = tokens[1].trim();
-        String itemName = tokens[2].trim();
-        String buyerName = tokens[3].trim();
+    public void handleSubscribe(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        String itemName = req.getItem();
+        String buyerName = req.getUser();
 
         // Check if item exists in active auctions
-        if (FileUtils.getAuctionLine("src/resources/activeAuctions.txt", itemName) == null) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "SUBSCRIPTION-DENIED RQ#" + rqNum + " Reason: Item not found");
+        if (!auctionBook.contains(itemName)) {
+            respond(ds, clientIP, clientPort, req, Reply.SUBSCRIPTION_DENIED, "Item not found");
             return;
         }
 
-        RegistrationInfo buyer = new RegistrationInfo(buyerName, "buyer", clientIP.getHostAddress(), clientPort, 0);
+        RegistrationInfo buyer = new RegistrationInfo(buyerName, "buyer", new InetSocketAddress(clientIP, clientPort), 0);
 
-        if (FileUtils.isAlreadySubscribed("src/resources/subscriptions.txt", itemName, buyer)) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "SUBSCRIPTION-DENIED RQ#" + rqNum + " Reason: Already subscribed");
+        if (!subscriptions.add(itemName, buyer)) {
+            respond(ds, clientIP, clientPort, req, Reply.SUBSCRIPTION_DENIED, "Already subscribed");
             return;
         }
 
-        boolean written = FileUtils.addSubscription("src/resources/subscriptions.txt", itemName, buyer);
-        if (written) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "SUBSCRIBED RQ#" + rqNum);
-        } else {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "SUBSCRIPTION-DENIED RQ#" + rqNum + " Reason: Internal server error");
-        }
+        subscriptionStore.subscribed(itemName, buyer);
+        respond(ds, clientIP, clientPort, req, Reply.SUBSCRIBED, null);
     }
 
-    public void handleDeSubscribe(String message, DatagramSocket ds, InetAddress clientIP, int clientPort) {
-        String[] tokens = message.split(",", 4);
-        if (tokens.length != 4) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "UNSUBSCRIBE-DENIED RQ#UNKNOWN Reason: Invalid format");
-            return;
-        }
+    public void handleDeSubscribe(Request req, DatagramSocket ds, InetAddress clientIP, int clientPort) {
+        String itemName = req.getItem();
+        String buyerName = req.getUser();
 
-        String rqNum = tokens[1].trim();
-        String itemName = tokens[2].trim();
-        String buyerName = tokens[3].trim();
+        RegistrationInfo buyer = new RegistrationInfo(buyerName, "buyer", new InetSocketAddress(clientIP, clientPort), 0);
 
-        RegistrationInfo buyer = new RegistrationInfo(buyerName, "buyer", clientIP.getHostAddress(), clientPort, 0);
-
-        boolean removed = FileUtils.removeSubscription("src/resources/subscriptions.txt", itemName, buyer);
+        boolean removed = subscriptions.remove(itemName, buyer);
 
         if (removed) {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "UNSUBSCRIBED RQ#" + rqNum);
+            subscriptionStore.unsubscribed(itemName, buyer);
+            respond(ds, clientIP, clientPort, req, Reply.UNSUBSCRIBED, null);
         } else {
-            NetworkUtils.sendMessageToClient(ds, clientIP, clientPort, "UNSUBSCRIBE-DENIED RQ#" + rqNum + " Reason: Subscription not found");
+            respond(ds, clientIP, clientPort, req, Reply.UNSUBSCRIBE_DENIED, "Subscription not found");
         }
     }
 
@@ -574,7 +553,7 @@ public class UDPServer {
         try {
             item = ItemRegistry.fromCSV(auctionCSV);
         } catch (Exception e) {
-            System.err.println("Failed to parse auction CSV: " + e.getMessage());
+            Log.error("Failed to parse auction CSV: {}", e.getMessage());
             return;
         }
 
@@ -584,23 +563,21 @@ public class UDPServer {
                 item.getDescription(),
                 item.getCurrentPrice(),
                 item.getTimeRemaining() / 60000);
-        List<RegistrationInfo> subscribedBuyers = FileUtils.getSubscribersForItem(SUBSCRIPTION_FILE, item.getItemName());
-        for (RegistrationInfo buyer : subscribedBuyers) {
-            try {
-                InetAddress address = InetAddress.getByName(buyer.getIpAddress());
-                NetworkUtils.sendMessageToClient(ds, address, buyer.getUdpPort(), message);
-            } catch (IOException e) {
-                System.err.println("Error broadcasting to " + buyer.getIpAddress() + ": " + e.getMessage());
-            }
-        }
+        Collection<RegistrationInfo> subscribedBuyers = subscriptions.subscribersOf(item.getItemName());
+        NetworkUtils.broadcast(ds, subscribedBuyers, null, message);
     }
 
     public void start(int port) throws IOException {
         DatagramSocket ds = new DatagramSocket(port);
         UDPServer server = new UDPServer();
-        System.out.println("Server listening on port: " + port);
+        Log.info("Server listening on port: {}", port);
 
-        ExecutorService pool = Executors.newFixedThreadPool(10);
+        // Auctions recovered from disk resume their timers; any already past their deadline end now.
+        for (ItemRegistry item : auctionBook.items()) {
+            server.scheduleAuction(item, ds);
+        }
+
+        ExecutorService pool = WorkerThreads.newHandlerPool(10);
 
         while (true) {
             byte[] receive = new byte[65535];
@@ -614,82 +591,239 @@ public class UDPServer {
             InetAddress clientAddress = dpReceive.getAddress();
             int clientPort = dpReceive.getPort();
 
-            pool.execute(() -> {
-                String msg = new String(data).trim();
-                System.out.println("Received message: " + msg);
+            pool.execute(() -> server.handleMessage(data, ds, clientAddress, clientPort));
+        }
+    }
 
-                if (MessageParser.isGetAllItemsRequest(msg)) {
-                    String items = FileUtils.readFileAsString(ACTIVE_AUCTIONS_FILE);
-                    NetworkUtils.sendMessageToClient(ds, clientAddress, clientPort, items);
-                    return;
-                }
+    // Non-blocking variant of start(): one selector thread only moves datagrams from the
+    // channel into pooled direct buffers and queues them. Decoding and the handlers run on
+    // the worker pool and replies leave through the outbound sender, so a slow handler
+    // never holds up the receive loop.
+    public void startNio(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        DatagramSocket ds = channel.socket(); // handlers reply through the channel behind this adaptor
+        UDPServer server = new UDPServer();
+        Log.info("Server listening on port (NIO): {}", port);
 
-                if (msg.equalsIgnoreCase("bye")) {
-                    System.out.println("Client sent bye...EXITING");
-                    return;
-                }
+        for (ItemRegistry item : auctionBook.items()) {
+            server.scheduleAuction(item, ds);
+        }
 
+        ExecutorService pool = WorkerThreads.newHandlerPool(10);
+        BufferPool buffers = new BufferPool(RECEIVE_BUFFERS, 65535);
 
-// Handle space-separated negotiation messages FIRST
-                String spaceAction = msg.split("\\s+")[0].trim().toLowerCase();
-                if (spaceAction.equals("accept")) {
-                    server.handleAcceptNegotiation(msg, ds, clientAddress, clientPort);
-                    return;
-                } else if (spaceAction.equals("refuse")) {
-                    server.handleRefuseNegotiation(msg, ds, clientAddress, clientPort);
-                    return;
-                }
+        Selector selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
 
-// ONLY THEN: comma-split regular protocol messages
-                String[] tokens = msg.split(",");
-                if (tokens.length < 2) {
-                    System.err.println("DEBUG: Invalid message format.");
+        while (true) {
+            selector.select();
+            selector.selectedKeys().clear();
+
+            // Drain everything that is queued on the socket before selecting again. Each
+            // queued task holds a pooled buffer, so at most RECEIVE_BUFFERS are in flight.
+            while (true) {
+                ByteBuffer buf;
+                try {
+                    buf = buffers.acquire();
+                } catch (InterruptedException e) {
+                    Log.error("NIO receive loop interrupted: {}", e.getMessage());
                     return;
                 }
+                InetSocketAddress sender = (InetSocketAddress) channel.receive(buf);
+                if (sender == null) {
+                    buffers.release(buf);
+                    break;
+                }
+                buf.flip();
+
+                pool.execute(() -> {
+                    try {
+                        server.handleMessage(buf, ds, sender.getAddress(), sender.getPort());
+                    } finally {
+                        buffers.release(buf);
+                    }
+                });
+            }
+        }
+    }
 
+    // NIO path: the pooled buffer is copied into the handler thread's reusable array.
+    public void handleMessage(ByteBuffer buf, DatagramSocket ds, InetAddress clientAddress, int clientPort) {
+        int length = buf.remaining();
+        byte[] data = requests.get().load(buf);
+        handleMessage(data, length, ds, clientAddress, clientPort);
+    }
+
+    public void handleMessage(byte[] data, DatagramSocket ds, InetAddress clientAddress, int clientPort) {
+        handleMessage(data, data.length, ds, clientAddress, clientPort);
+    }
 
-                String action = tokens[0].trim().toLowerCase();
-                int requestNumber = requestCounter.getAndIncrement();
-                FileUtils.writeLastRequestNumber("src/resources/last_rq.txt", requestNumber);
-
-                switch (action) {
-                    case "register":
-                        try {
-                            RegistrationInfo regInfo = MessageParser.parseRegistrationMessage(msg);
-                            System.out.println("DEBUG: Parsed Registration Information: " + regInfo);
-                            server.registerAccount(regInfo, requestNumber, ds, new DatagramPacket(data, data.length, clientAddress, clientPort));
-                        } catch (IllegalArgumentException e) {
-                            String errorMessage = "Register-denied RQ#" + requestNumber + " Reason: " + e.getMessage();
-                            NetworkUtils.sendMessageToClient(ds, clientAddress, clientPort, errorMessage);
-                        }
-                        break;
-
-                    case "deregister":
-                        String uniqueName = tokens[1].trim();
-                        server.deregisterAccount(uniqueName, ds, clientAddress, clientPort, requestNumber);
-                        break;
-
-                    case "list_item":
-                        server.listItem(msg, requestNumber, ds, clientAddress, clientPort);
-                        break;
-
-                    case "subscribe":
-                        server.handleSubscribe(msg, ds, clientAddress, clientPort);
-                        break;
-
-                    case "de-subscribe":
-                        server.handleDeSubscribe(msg, ds, clientAddress, clientPort);
-                        break;
-
-                    case "bid":
-                        server.placeBid(msg, ds, clientAddress, clientPort);
-                        break;
-
-                    default:
-                        System.err.println("DEBUG: Unknown action: " + action);
-                        break;
+    public void handleMessage(byte[] data, int length, DatagramSocket ds, InetAddress clientAddress, int clientPort) {
+        long start = System.nanoTime();
+        Request req = requests.get();
+        try {
+            dispatch(req, data, length, ds, clientAddress, clientPort);
+        } finally {
+            if (req.getOpcode() != Request.UNKNOWN) requestLatency[req.getOpcode()].recordSince(start);
+        }
+    }
+
+    private void dispatch(Request req, byte[] data, int length, DatagramSocket ds, InetAddress clientAddress, int clientPort) {
+        // Clients using ReliableUdp wrap their requests; acks and retransmitted duplicates stop here
+        int offset = 0;
+        if (ReliableUdp.isFrame(data, length)) {
+            offset = NetworkUtils.acceptReliable(ds, new InetSocketAddress(clientAddress, clientPort), data, length);
+            if (offset < 0) {
+                req.reset();
+                return;
+            }
+        }
+        int size = length - offset;
+
+        try {
+            if (BinaryProtocol.isBinary(data, offset, size)) {
+                BinaryProtocol.decode(data, offset, size, req);
+                Log.debug("Received binary request: {}", Request.opcodeName(req.getOpcode()));
+            } else {
+                if (Log.isDebugEnabled()) Log.debug("Received message: {}", new String(data, offset, size).trim());
+                MessageParser.parse(data, offset, size, req);
+            }
+        } catch (IllegalArgumentException e) {
+            if (req.denial() == null) {
+                Log.debug("Undecodable request: {}", e.getMessage());
+                return;
+            }
+            if (!assignRequestNumber(req)) return;
+            respond(ds, clientAddress, clientPort, req, req.denial(), e.getMessage());
+            return;
+        }
+
+        // A retry of a request we already answered gets the same reply again, and nothing is re-executed
+        String key = req.isReplayable() ? ResponseCache.key(clientAddress, clientPort, req, data, offset, size) : null;
+        if (key != null) {
+            byte[] previous = responses.begin(key);
+            if (previous != null) {
+                if (!ResponseCache.isPending(previous)) {
+                    Log.debug("Replaying reply to a retried {}", Request.opcodeName(req.getOpcode()));
+                    NetworkUtils.sendPayload(ds, new InetSocketAddress(clientAddress, clientPort), previous);
                 }
-            });
+                return;
+            }
+            req.setReplayKey(key);
+        }
+
+        try {
+            if (!assignRequestNumber(req)) return; // no reply; the client's retry tries again
+            handle(req, ds, clientAddress, clientPort);
+        } finally {
+            if (req.getReplayKey() != null) responses.abandon(req.getReplayKey()); // respond() clears it once it has answered
+        }
+    }
+
+    private void handle(Request req, DatagramSocket ds, InetAddress clientAddress, int clientPort) {
+        switch (req.getOpcode()) {
+            case Request.HELLO:
+                NetworkUtils.sendPayload(ds, new InetSocketAddress(clientAddress, clientPort), BinaryProtocol.helloAck());
+                break;
+
+            case Request.GET_ALL_ITEMS:
+                respond(ds, clientAddress, clientPort, req, Reply.ITEMS, auctionBook.listAll());
+                break;
+
+            case Request.BYE:
+                Log.debug("Client sent bye");
+                break;
+
+            case Request.ACCEPT:
+                handleAcceptNegotiation(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.REFUSE:
+                handleRefuseNegotiation(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.REGISTER:
+                registerAccount(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.DEREGISTER:
+                deregisterAccount(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.LIST_ITEM:
+                listItem(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.SUBSCRIBE:
+                handleSubscribe(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.DE_SUBSCRIBE:
+                handleDeSubscribe(req, ds, clientAddress, clientPort);
+                break;
+
+            case Request.BID:
+                placeBid(req, ds, clientAddress, clientPort);
+                break;
+
+            default:
+                Log.debug("Unknown opcode: {}", req.getOpcode());
+                break;
         }
     }
-}
\ No newline at end of file
+
+    // False if no RQ# could be reserved, in which case the request is dropped.
+    private static boolean assignRequestNumber(Request req) {
+        if (!req.consumesRequestNumber()) return true;
+        int requestNumber;
+        try {
+            requestNumber = requestNumbers.next();
+        } catch (IllegalStateException e) {
+            Log.error("Dropping {}: {}", Request.opcodeName(req.getOpcode()), e.getMessage());
+            return false;
+        }
+        if (req.usesServerRequestNumber()) {
+            req.assignRequestNumber(requestNumber);
+        }
+        return true;
+    }
+
+    private void respond(DatagramSocket ds, InetAddress clientIP, int clientPort, Request req, Reply reply, String detail) {
+        respond(ds, clientIP, clientPort, req, reply, detail, null);
+    }
+
+    // Answers in the protocol the request arrived in, keeping the reply for retries. The
+    // reply, and then afterDurable (broadcasts of the change, may be null), go out once
+    // the change it acknowledges is durable; until then a retry of the request is
+    // dropped as pending. If the change cannot be made durable the server fail-stops.
+    private void respond(DatagramSocket ds, InetAddress clientIP, int clientPort, Request req, Reply reply, String detail,
+                         Runnable afterDurable) {
+        byte[] payload = encode(req.isBinary(), req.getRequestNumber(), req.rqTag(), reply, detail);
+        String replayKey = req.getReplayKey();
+        req.setReplayKey(null); // answered; dispatch must not abandon the key
+        InetSocketAddress client = new InetSocketAddress(clientIP, clientPort);
+        storage.whenDurable(() -> {
+            if (replayKey != null) responses.complete(replayKey, payload);
+            NetworkUtils.sendPayload(ds, client, payload);
+            if (afterDurable != null) afterDurable.run();
+        }, UDPServer::failStop);
+    }
+
+    // The change is already applied in memory, may have been read or built on by other
+    // requests since, and its record cannot be written, so it cannot safely be undone or
+    // denied. Stop instead: a restart recovers the last durable state, and the clients'
+    // retries are answered from that.
+    private static void failStop() {
+        Log.error("State log could not save a change; stopping so a restart recovers the last saved state");
+        System.exit(1);
+    }
+
+    private static byte[] encode(boolean binary, int requestNumber, String rqTag, Reply reply, String detail) {
+        if (binary) return BinaryProtocol.encodeReply(reply, requestNumber, detail);
+        String text = reply.text(rqTag, detail);
+        Log.debug("Sending message to client: {}", text);
+        return text.getBytes();
+    }
+}
@@ -0,0 +1,106 @@
+package Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registered accounts keyed by case-folded unique name; each RegistrationInfo carries
+// its UDP endpoint resolved once at registration. An AccountStore persists the changes;
+// the file methods read and write the accounts.txt layout for the stores that use it.
+public class AccountDirectory {
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+    public void readSnapshot(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    addFromCSV(line);
+                } catch (RuntimeException e) {
+                    Log.warn("Skipping malformed account line: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error loading accounts file: {}", e.getMessage());
+        }
+    }
+
+    private static String key(String uniqueName) {
+        return uniqueName.trim().toLowerCase();
+    }
+
+    // Same layout as accounts.txt: uniqueName,role,ipAddress,udpPort,tcpPort,RQ#n
+    public boolean addFromCSV(String line) {
+        String[] tokens = line.split(",");
+        if (tokens.length < 6) throw new IllegalArgumentException("Malformed account line");
+
+        RegistrationInfo info = new RegistrationInfo(tokens[0].trim(), tokens[1].trim(), tokens[2].trim(),
+                Integer.parseInt(tokens[3].trim()), Integer.parseInt(tokens[4].trim()));
+        int requestNumber = Integer.parseInt(tokens[5].trim().replace("RQ#", ""));
+        return add(info, requestNumber);
+    }
+
+    public boolean add(RegistrationInfo info, int requestNumber) {
+        return accounts.putIfAbsent(key(info.getUniqueName()), new Account(info, requestNumber)) == null;
+    }
+
+    public boolean remove(String uniqueName) {
+        return accounts.remove(key(uniqueName)) != null;
+    }
+
+    public RegistrationInfo get(String uniqueName) {
+        Account account = accounts.get(key(uniqueName));
+        return account != null ? account.info : null;
+    }
+
+    public InetSocketAddress addressOf(String uniqueName) {
+        Account account = accounts.get(key(uniqueName));
+        return account != null ? account.info.getUdpAddress() : null;
+    }
+
+    public boolean contains(String uniqueName) {
+        return accounts.containsKey(key(uniqueName));
+    }
+
+    public boolean isCapacityReached(int maxUsers) {
+        return accounts.size() >= maxUsers;
+    }
+
+    public static String toCSV(RegistrationInfo info, int requestNumber) {
+        return String.format("%s,%s,%s,%d,%d,RQ#%d",
+                info.getUniqueName(),
+                info.getRole(),
+                info.getIpAddress(),
+                info.getUdpPort(),
+                info.getTcpPort(),
+                requestNumber);
+    }
+
+    // False if the file could not be written; the previous snapshot is then left in place.
+    public boolean writeSnapshot(String filePath) {
+        List<String> lines = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            lines.add(toCSV(account.info, account.requestNumber));
+        }
+        return FileUtils.rewriteFile(filePath, lines);
+    }
+
+    private static class Account {
+        final RegistrationInfo info;
+        final int requestNumber;
+
+        Account(RegistrationInfo info, int requestNumber) {
+            this.info = info;
+            this.requestNumber = requestNumber;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package Utils;
+
+// Where account changes are persisted; AccountDirectory holds the live accounts.
+public interface AccountStore {
+    void load(AccountDirectory accounts);
+
+    void registered(RegistrationInfo account, int requestNumber);
+
+    void deregistered(String uniqueName);
+}
@@ -0,0 +1,110 @@
+package Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Resident view of every live auction. Bids, negotiation and listing read and
+// update the ItemRegistry objects held here, and an AuctionStore persists the
+// changes; the file methods read and write the activeAuctions.txt layout.
+public class AuctionBook {
+    private final ConcurrentHashMap<String, ItemRegistry> items = new ConcurrentHashMap<>();
+
+    public void readSnapshot(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    ItemRegistry item = ItemRegistry.fromCSV(line);
+                    items.put(key(item.getItemName()), item);
+                } catch (RuntimeException e) {
+                    Log.warn("Skipping malformed auction line: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error loading auctions file: {}", e.getMessage());
+        }
+    }
+
+    private static String key(String itemName) {
+        return itemName.trim().toLowerCase();
+    }
+
+    public ItemRegistry get(String itemName) {
+        return items.get(key(itemName));
+    }
+
+    public boolean contains(String itemName) {
+        return items.containsKey(key(itemName));
+    }
+
+    public boolean add(ItemRegistry item) {
+        return items.putIfAbsent(key(item.getItemName()), item) == null;
+    }
+
+    public ItemRegistry remove(String itemName) {
+        return items.remove(key(itemName));
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public Collection<ItemRegistry> items() {
+        return items.values();
+    }
+
+    // Same shape as reading the auctions file: one CSV line per auction.
+    public String listAll() {
+        StringBuilder content = new StringBuilder();
+        for (ItemRegistry item : items.values()) {
+            content.append(item.toCSV()).append("\n");
+        }
+        return content.toString().trim();
+    }
+
+    // False if the file could not be written; the previous snapshot is then left in place.
+    public boolean writeSnapshot(String filePath) {
+        List<String> lines = new ArrayList<>();
+        for (ItemRegistry item : items.values()) {
+            lines.add(item.toCSV());
+        }
+        return FileUtils.rewriteFile(filePath, lines);
+    }
+
+    // Applies an auction record from the state log. Every record sets state
+    // rather than deriving it, so replaying one the snapshot already holds is harmless.
+    public void replay(String[] record) {
+        switch (record[0]) {
+            case WriteAheadLog.LIST:
+                ItemRegistry listed = ItemRegistry.fromCSV(String.join(",", Arrays.copyOfRange(record, 1, record.length)));
+                items.putIfAbsent(key(listed.getItemName()), listed);
+                break;
+            case WriteAheadLog.BID:
+                ItemRegistry bidOn = get(record[1]);
+                if (bidOn != null) bidOn.restoreBid(record[2], Double.parseDouble(record[3]));
+                break;
+            case WriteAheadLog.NEGOTIATE:
+                ItemRegistry adjusted = get(record[1]);
+                if (adjusted != null) adjusted.adjustPrice(Double.parseDouble(record[2]));
+                break;
+            case WriteAheadLog.NEGOTIATION_SENT:
+                ItemRegistry negotiated = get(record[1]);
+                if (negotiated != null) negotiated.setNegotiationSent(true);
+                break;
+            case WriteAheadLog.END:
+                remove(record[1]);
+                break;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One small timer pool drives every auction: the periodic AUCTION_UPDATE, the
+// half-time negotiation check and the end of the auction at its exact deadline.
+// Timer threads must not block, so anything slow should be handed to another executor.
+public class AuctionScheduler {
+    private static final int TIMER_THREADS = 2;
+
+    private final ScheduledThreadPoolExecutor timer;
+    private final ConcurrentHashMap<String, List<ScheduledFuture<?>>> tasks = new ConcurrentHashMap<>();
+
+    public AuctionScheduler() {
+        AtomicInteger count = new AtomicInteger();
+        timer = new ScheduledThreadPoolExecutor(TIMER_THREADS, r -> {
+            Thread t = new Thread(r, "auction-timer-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    public void schedule(ItemRegistry item, long updateIntervalMs, Runnable onUpdate, Runnable onHalfTime, Runnable onEnd) {
+        String key = item.getItemName().toLowerCase();
+        long now = System.currentTimeMillis();
+        long endDelay = Math.max(0, item.getStartTime() + item.getDuration() - now);
+        long halfTimeDelay = item.getStartTime() + item.getDuration() / 2 - now;
+
+        // Registered before anything is submitted: an already-expired auction's end task can
+        // run before schedule() returns, and must then find and remove this entry.
+        List<ScheduledFuture<?>> futures = Collections.synchronizedList(new ArrayList<>(3));
+        List<ScheduledFuture<?>> previous = tasks.put(key, futures);
+        if (previous != null) previous.forEach(f -> f.cancel(false));
+
+        if (endDelay > updateIntervalMs) {
+            futures.add(timer.scheduleAtFixedRate(guard(onUpdate), updateIntervalMs, updateIntervalMs, TimeUnit.MILLISECONDS));
+        }
+        if (!item.isNegotiationSent() && halfTimeDelay < endDelay) {
+            futures.add(timer.schedule(guard(onHalfTime), Math.max(0, halfTimeDelay), TimeUnit.MILLISECONDS));
+        }
+        futures.add(timer.schedule(() -> {
+            // Only this schedule's entry; a later reschedule of the same item keeps its own
+            if (tasks.remove(key, futures)) futures.forEach(f -> f.cancel(false));
+            guard(onEnd).run();
+        }, endDelay, TimeUnit.MILLISECONDS));
+    }
+
+    public void cancel(String itemName) {
+        List<ScheduledFuture<?>> futures = tasks.remove(itemName.toLowerCase());
+        if (futures != null) futures.forEach(f -> f.cancel(false));
+    }
+
+    public ScheduledFuture<?> after(long delayMs, Runnable task) {
+        return timer.schedule(guard(task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public int scheduledAuctions() {
+        return tasks.size();
+    }
+
+    // A periodic task that throws is silently never run again, so log and carry on.
+    private static Runnable guard(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.error("Scheduled auction task failed: {}", e);
+            }
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package Utils;
+
+// Where auction changes are persisted. The AuctionBook holds the live auctions; a store
+// is told about each change after it has been applied there, under the item's lock.
+public interface AuctionStore {
+    // Fills the book with the auctions stored at startup.
+    void load(AuctionBook book);
+
+    void listed(ItemRegistry item);
+
+    void bidPlaced(ItemRegistry item);
+
+    void priceAdjusted(ItemRegistry item);
+
+    void negotiationSent(ItemRegistry item);
+
+    void ended(ItemRegistry item);
+
+    // Stores with fixed-size records say no to items or bidder names they cannot hold.
+    default boolean canStore(ItemRegistry item) {
+        return true;
+    }
+
+    default boolean canStoreName(String name) {
+        return true;
+    }
+}
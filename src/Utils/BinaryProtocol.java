@@ -0,0 +1,246 @@
+package Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Compact binary framing that runs alongside the comma/space text protocol on the
+// same port. Every frame starts with MAGIC, which no text message can begin with,
+// so the server tells the two apart from the first byte.
+//
+//   request: MAGIC, VERSION, opcode, rq (int32), fields...
+//   reply:   MAGIC, VERSION, REPLY, reply code, rq (int32), detail
+//
+// Strings are a uint16 byte length followed by UTF-8 (no commas or line breaks, see
+// Request); prices are int64 hundredths.
+// A client sends HELLO first and only switches to binary once HELLO_ACK comes back.
+// Broadcasts stay text for every client.
+public class BinaryProtocol {
+    public static final byte MAGIC = (byte) 0xA5;
+    public static final byte VERSION = 1;
+    public static final byte REPLY = (byte) 0x80;
+    public static final byte HELLO_ACK = (byte) 0x81;
+
+    private static final int HEADER = 3;
+    private static final byte[] HELLO_ACK_FRAME = {MAGIC, VERSION, HELLO_ACK};
+    private static final byte[] EMPTY = new byte[0];
+
+    public static boolean isBinary(byte[] data, int length) {
+        return isBinary(data, 0, length);
+    }
+
+    public static boolean isBinary(byte[] data, int offset, int length) {
+        return length >= HEADER && data[offset] == MAGIC;
+    }
+
+    public static boolean isHelloAck(byte[] data, int length) {
+        return isBinary(data, length) && data[2] == HELLO_ACK;
+    }
+
+    public static byte[] hello() {
+        return new byte[]{MAGIC, VERSION, Request.HELLO, 0, 0, 0, 0};
+    }
+
+    public static byte[] helloAck() {
+        return HELLO_ACK_FRAME.clone();
+    }
+
+    public static void decode(byte[] data, int length, Request req) throws IllegalArgumentException {
+        decode(data, 0, length, req);
+    }
+
+    // Reads the frame in place; string fields stay as ranges of data (see Request).
+    public static void decode(byte[] data, int offset, int length, Request req) throws IllegalArgumentException {
+        req.reset();
+        req.binary = true;
+        if (length < HEADER || data[offset] != MAGIC || data[offset + 1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary frame");
+        }
+
+        int end = offset + length;
+        byte opcode = data[offset + 2];
+        if (opcode < Request.HELLO || opcode > Request.BYE) {
+            throw new IllegalArgumentException("Unknown opcode " + opcode);
+        }
+        req.opcode = opcode;
+
+        int p = need(offset + HEADER, 4, end);
+        req.requestNumber = getInt(data, p - 4);
+        switch (opcode) {
+            case Request.REGISTER:
+                p = readString(data, p, end, req, Request.USER);
+                p = readString(data, p, end, req, Request.ROLE);
+                p = readString(data, p, end, req, Request.HOST);
+                p = need(p, 4, end);
+                req.udpPort = getUnsignedShort(data, p - 4);
+                req.tcpPort = getUnsignedShort(data, p - 2);
+                break;
+            case Request.DEREGISTER:
+                readString(data, p, end, req, Request.USER);
+                break;
+            case Request.LIST_ITEM:
+                p = readString(data, p, end, req, Request.ITEM);
+                p = readString(data, p, end, req, Request.DESCRIPTION);
+                p = need(p, 12, end);
+                req.amount = getLong(data, p - 12) / 100.0;
+                req.durationMinutes = getInt(data, p - 4);
+                readString(data, p, end, req, Request.USER);
+                break;
+            case Request.SUBSCRIBE:
+            case Request.DE_SUBSCRIBE:
+                p = readString(data, p, end, req, Request.ITEM);
+                readString(data, p, end, req, Request.USER);
+                break;
+            case Request.BID:
+                p = readString(data, p, end, req, Request.ITEM);
+                p = readString(data, p, end, req, Request.USER);
+                p = need(p, 8, end);
+                req.amount = getLong(data, p - 8) / 100.0;
+                break;
+            case Request.ACCEPT:
+                p = readString(data, p, end, req, Request.ITEM);
+                p = need(p, 8, end);
+                req.amount = getLong(data, p - 8) / 100.0;
+                break;
+            case Request.REFUSE:
+                readString(data, p, end, req, Request.ITEM);
+                break;
+            default:
+                break; // HELLO, GET_ALL_ITEMS and BYE carry no fields
+        }
+    }
+
+    public static byte[] encode(Request req) {
+        byte[] user = bytes(req.getUser());
+        byte[] role = bytes(req.getRole());
+        byte[] host = bytes(req.getHost());
+        byte[] item = bytes(req.getItem());
+        byte[] description = bytes(req.getDescription());
+
+        int size = HEADER + 4;
+        switch (req.opcode) {
+            case Request.REGISTER: size += 2 + user.length + 2 + role.length + 2 + host.length + 4; break;
+            case Request.DEREGISTER: size += 2 + user.length; break;
+            case Request.LIST_ITEM: size += 2 + item.length + 2 + description.length + 8 + 4 + 2 + user.length; break;
+            case Request.SUBSCRIBE:
+            case Request.DE_SUBSCRIBE: size += 2 + item.length + 2 + user.length; break;
+            case Request.BID: size += 2 + item.length + 2 + user.length + 8; break;
+            case Request.ACCEPT: size += 2 + item.length + 8; break;
+            case Request.REFUSE: size += 2 + item.length; break;
+            default: break;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put(MAGIC).put(VERSION).put(req.opcode).putInt(numericRequestNumber(req));
+        switch (req.opcode) {
+            case Request.REGISTER:
+                putString(out, user);
+                putString(out, role);
+                putString(out, host);
+                out.putShort((short) req.udpPort).putShort((short) req.tcpPort);
+                break;
+            case Request.DEREGISTER:
+                putString(out, user);
+                break;
+            case Request.LIST_ITEM:
+                putString(out, item);
+                putString(out, description);
+                out.putLong(toHundredths(req.amount)).putInt((int) req.durationMinutes);
+                putString(out, user);
+                break;
+            case Request.SUBSCRIBE:
+            case Request.DE_SUBSCRIBE:
+                putString(out, item);
+                putString(out, user);
+                break;
+            case Request.BID:
+                putString(out, item);
+                putString(out, user);
+                out.putLong(toHundredths(req.amount));
+                break;
+            case Request.ACCEPT:
+                putString(out, item);
+                out.putLong(toHundredths(req.amount));
+                break;
+            case Request.REFUSE:
+                putString(out, item);
+                break;
+            default:
+                break;
+        }
+        return out.array();
+    }
+
+    public static byte[] encodeReply(Reply reply, int requestNumber, String detail) {
+        byte[] text = bytes(detail);
+        ByteBuffer out = ByteBuffer.allocate(HEADER + 1 + 4 + 2 + text.length);
+        out.put(MAGIC).put(VERSION).put(REPLY).put((byte) reply.getCode()).putInt(requestNumber);
+        putString(out, text);
+        return out.array();
+    }
+
+    // Renders a binary reply as the text the server would have sent for the same request.
+    public static String decodeReply(byte[] data, int length) throws IllegalArgumentException {
+        if (!isBinary(data, length) || data[2] != REPLY) {
+            throw new IllegalArgumentException("Not a reply frame");
+        }
+        int p = need(HEADER, 7, length);
+        Reply reply = Reply.fromCode(data[HEADER]);
+        int requestNumber = getInt(data, HEADER + 1);
+        int len = getUnsignedShort(data, HEADER + 5);
+        need(p, len, length);
+        return reply.text(Integer.toString(requestNumber), new String(data, p, len, StandardCharsets.UTF_8));
+    }
+
+    // Text requests carry their RQ# as a string; binary needs it as a number.
+    private static int numericRequestNumber(Request req) {
+        if (req.hasRqTag()) {
+            try {
+                return Integer.parseInt(req.rqTag());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return Math.max(req.requestNumber, 0);
+    }
+
+    // Advances past count bytes, failing if the frame is shorter than that.
+    private static int need(int p, int count, int end) {
+        if (p + count > end) throw new IllegalArgumentException("Invalid format");
+        return p + count;
+    }
+
+    private static int readString(byte[] data, int p, int end, Request req, int field) {
+        p = need(p, 2, end);
+        int len = getUnsignedShort(data, p - 2);
+        need(p, len, end);
+        req.setField(field, data, p, len);
+        return p + len;
+    }
+
+    private static int getUnsignedShort(byte[] data, int p) {
+        return ((data[p] & 0xFF) << 8) | (data[p + 1] & 0xFF);
+    }
+
+    private static int getInt(byte[] data, int p) {
+        return ((data[p] & 0xFF) << 24) | ((data[p + 1] & 0xFF) << 16) | ((data[p + 2] & 0xFF) << 8) | (data[p + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] data, int p) {
+        return ((long) getInt(data, p) << 32) | (getInt(data, p + 4) & 0xFFFFFFFFL);
+    }
+
+    private static long toHundredths(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? EMPTY : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer out, byte[] s) {
+        if (s.length > 0xFFFF) {
+            throw new IllegalArgumentException("Field longer than 65535 bytes");
+        }
+        out.putShort((short) s.length).put(s);
+    }
+}
@@ -0,0 +1,34 @@
+package Utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed set of reusable direct buffers for the receive path. No buffer is ever
+// allocated beyond the pool: when every one is in use acquire() waits for one to come
+// back. The receive loop then stops draining the socket, so under overload the
+// kernel's receive buffer fills and sheds packets instead of the server queueing
+// work and direct memory without limit.
+public class BufferPool {
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private static final LongAdder exhausted = Metrics.counter("receive.buffers.exhausted");
+
+    public BufferPool(int count, int bufferSize) {
+        this.free = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            free.offer(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    public ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buf = free.poll();
+        if (buf != null) return buf;
+        exhausted.increment();
+        return free.take();
+    }
+
+    public void release(ByteBuffer buf) {
+        buf.clear();
+        free.offer(buf);
+    }
+}
@@ -1,10 +1,55 @@
 package Utils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class FileUtils {
+    private static final AtomicLong tempFiles = new AtomicLong();
+
+    // A temp file next to target, unique per call so concurrent writers never share one.
+    private static File tempFileFor(File target) {
+        return new File(target.getPath() + "." + tempFiles.incrementAndGet() + ".tmp");
+    }
+
+    // Puts a fully written temp file in place of target in one atomic step. The temp file
+    // is synced before the rename and the directory after it, so after a crash target is
+    // either the old or the new version. Readers never find it missing or half written:
+    // one that opens it meanwhile gets one version or the other, and one that already has
+    // the old file open keeps reading it undisturbed.
+    //
+    // Temp files are written through a BufferedWriter, never a PrintWriter, which
+    // swallows errors: a short write (a full disk) must throw so the caller deletes the
+    // temp file instead of putting a truncated copy in place of target.
+    private static boolean replace(File tempFile, File target) {
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(target.toPath());
+            return true;
+        } catch (IOException e) {
+            Log.error("Failed to replace {}: {}", target.getPath(), e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+    }
+
+    // Makes a rename or a newly created file in file's directory durable.
+    public static void syncDirectory(Path file) {
+        try (FileChannel channel = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms (Windows) cannot open a directory; the rename is still atomic there
+        }
+    }
 
     public static int readLastRequestNumber(String filePath) {
         File file = new File(filePath);
@@ -14,17 +59,25 @@ public class FileUtils {
             String line = reader.readLine();
             return line != null ? Integer.parseInt(line.trim()) : 0;
         } catch (IOException | NumberFormatException e) {
-            System.err.println("Error reading last RQ#: " + e.getMessage());
+            Log.error("Error reading last RQ#: {}", e.getMessage());
             return 0;
         }
     }
 
-    public static void writeLastRequestNumber(String filePath, int lastRQ) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
-            writer.println(lastRQ);
+    // Durable and atomic, because RequestNumberAllocator hands out numbers on the strength
+    // of it: a crash mid-write must not leave an empty file that restarts numbering at 1.
+    // False if the new value is not durably in place.
+    public static boolean writeLastRequestNumber(String filePath, int lastRQ) {
+        File file = new File(filePath);
+        File tempFile = tempFileFor(file);
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            out.write((lastRQ + System.lineSeparator()).getBytes());
         } catch (IOException e) {
-            System.err.println("Error writing last RQ#: " + e.getMessage());
+            Log.error("Error writing last RQ#: {}", e.getMessage());
+            tempFile.delete();
+            return false;
         }
+        return replace(tempFile, file);
     }
 
     public static boolean isCapacityReached(String filePath, int maxUsers) {
@@ -35,7 +88,7 @@ public class FileUtils {
         try (BufferedReader br = new BufferedReader(new FileReader(file))) {
             while (br.readLine() != null) count++;
         } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
+            Log.error("Error reading file: {}", e.getMessage());
             return true;
         }
         return count >= maxUsers;
@@ -49,7 +102,7 @@ public class FileUtils {
         try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
             while (reader.readLine() != null) count++;
         } catch (IOException e) {
-            System.err.println("Error reading items file: " + e.getMessage());
+            Log.error("Error reading items file: {}", e.getMessage());
             return true;
         }
         return count >= maxItems;
@@ -63,7 +116,7 @@ public class FileUtils {
                 content.append(line).append("\n");
             }
         } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
+            Log.error("Error reading file: {}", e.getMessage());
             return "Could not load items.";
         }
         return content.toString().trim();
@@ -79,23 +132,39 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading file: " + e.getMessage());
+            Log.error("Error reading file: {}", e.getMessage());
         }
         return false;
     }
 
     public static boolean appendLineToFile(String filePath, String line) {
-        try (FileWriter fw = new FileWriter(filePath, true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(line);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filePath, true))) {
+            out.write(line);
+            out.newLine();
             return true;
         } catch (IOException e) {
-            System.err.println("Error writing to file: " + e.getMessage());
+            Log.error("Error writing to file: {}", e.getMessage());
             return false;
         }
     }
 
+    public static boolean rewriteFile(String filePath, List<String> lines) {
+        File inputFile = new File(filePath);
+        File tempFile = tempFileFor(inputFile);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath())) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            Log.error("Error writing {}: {}", filePath, e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+        return replace(tempFile, inputFile);
+    }
+
     public static boolean isDuplicateItem(String filePath, String itemName) {
         try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
             String line;
@@ -106,7 +175,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading items file: " + e.getMessage());
+            Log.error("Error reading items file: {}", e.getMessage());
         }
         return false;
     }
@@ -127,7 +196,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error checking subscription: " + e.getMessage());
+            Log.error("Error checking subscription: {}", e.getMessage());
         }
 
         return false;
@@ -140,11 +209,11 @@ public class FileUtils {
 
     public static boolean removeSubscription(String filePath, String itemName, RegistrationInfo buyer) {
         File inputFile = new File(filePath);
-        File tempFile = new File(filePath + ".tmp");
+        File tempFile = tempFileFor(inputFile);
         boolean found = false;
 
         try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
+             BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath())) {
 
             String line;
             while ((line = reader.readLine()) != null) {
@@ -156,30 +225,29 @@ public class FileUtils {
                     found = true; // Skip this line (remove it)
                     continue;
                 }
-                writer.println(line); // Keep this line
+                writer.write(line); // Keep this line
+                writer.newLine();
             }
 
         } catch (IOException e) {
-            System.err.println("Error processing subscriptions file: " + e.getMessage());
+            Log.error("Error processing subscriptions file: {}", e.getMessage());
+            tempFile.delete();
             return false;
         }
 
         // Replace original file with updated temp file
-        if (!inputFile.delete() || !tempFile.renameTo(inputFile)) {
-            System.err.println("Failed to replace subscriptions file.");
-            return false;
-        }
+        if (!replace(tempFile, inputFile)) return false;
 
         return found;
     }
 
     public static String removeAccountByName(String filePath, String uniqueName, int requestNumber) {
         File inputFile = new File(filePath);
-        File tempFile = new File(filePath + ".tmp");
+        File tempFile = tempFileFor(inputFile);
         boolean found = false;
 
         try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
+             BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath())) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] tokens = line.split(",");
@@ -187,14 +255,16 @@ public class FileUtils {
                     found = true;
                     continue;
                 }
-                writer.println(line);
+                writer.write(line);
+                writer.newLine();
             }
         } catch (IOException e) {
-            System.err.println("Error processing accounts file: " + e.getMessage());
+            Log.error("Error processing accounts file: {}", e.getMessage());
+            tempFile.delete();
             return "Deregister-denied RQ#" + requestNumber + " Reason: Internal server error";
         }
 
-        if (!inputFile.delete() || !tempFile.renameTo(inputFile)) {
+        if (!replace(tempFile, inputFile)) {
             return "Deregister-denied RQ#" + requestNumber + " Reason: File processing error";
         }
 
@@ -216,7 +286,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading subscriptions file: " + e.getMessage());
+            Log.error("Error reading subscriptions file: {}", e.getMessage());
         }
         return subscribers;
     }
@@ -239,7 +309,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading accounts file: " + e.getMessage());
+            Log.error("Error reading accounts file: {}", e.getMessage());
         }
 
         return buyers;
@@ -265,7 +335,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            e.printStackTrace(); // Log the error if there's an issue reading the file
+            Log.error("Error reading subscribers file: {}", e.getMessage());
         }
 
         return subscribers;
@@ -273,11 +343,11 @@ public class FileUtils {
 
     public static boolean removeItemFromFile(String filePath, String itemName) {
         File inputFile = new File(filePath);
-        File tempFile = new File(filePath + ".tmp");
+        File tempFile = tempFileFor(inputFile);
         boolean found = false;
 
         try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
+             BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath())) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] tokens = line.split(",");
@@ -285,23 +355,22 @@ public class FileUtils {
                     found = true; // Skip this line (remove the item)
                     continue;
                 }
-                writer.println(line); // Keep this line
+                writer.write(line); // Keep this line
+                writer.newLine();
             }
         } catch (IOException e) {
-            System.err.println("Error processing items file: " + e.getMessage());
+            Log.error("Error processing items file: {}", e.getMessage());
+            tempFile.delete();
             return false;
         }
 
         // Replace original file with updated temp file
-        if (!inputFile.delete() || !tempFile.renameTo(inputFile)) {
-            System.err.println("Failed to replace items file.");
-            return false;
-        }
+        if (!replace(tempFile, inputFile)) return false;
 
         if (found) {
-            System.out.println("Item '" + itemName + "' has been successfully removed from the auction.");
+            Log.debug("Item '{}' has been removed from the auction", itemName);
         } else {
-            System.out.println("Item '" + itemName + "' was not found in the auction list.");
+            Log.debug("Item '{}' was not found in the auction list", itemName);
         }
 
         return found;
@@ -318,7 +387,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error reading auctions file: " + e.getMessage());
+            Log.error("Error reading auctions file: {}", e.getMessage());
         }
         return null;
     }
@@ -337,7 +406,7 @@ public class FileUtils {
                 }
             }
         } catch (IOException | NumberFormatException e) {
-            System.err.println("Error reading user file: " + e.getMessage());
+            Log.error("Error reading user file: {}", e.getMessage());
         }
         return null;
     }
@@ -345,36 +414,36 @@ public class FileUtils {
 
     public static boolean updateAuctionLine(String filePath, String itemName, String updatedLine) {
         File inputFile = new File(filePath);
-        File tempFile = new File(filePath + ".tmp");
+        File tempFile = tempFileFor(inputFile);
         boolean updated = false;
 
         try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             PrintWriter writer = new PrintWriter(new FileWriter(tempFile))) {
+             BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath())) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] tokens = line.split(",");
                 if (tokens.length > 0 && tokens[0].trim().equalsIgnoreCase(itemName)) {
-                    writer.println(updatedLine);
+                    writer.write(updatedLine);
+                    writer.newLine();
                     updated = true;
                 } else {
-                    writer.println(line);
+                    writer.write(line);
+                    writer.newLine();
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error updating auctions file: " + e.getMessage());
+            Log.error("Error updating auctions file: {}", e.getMessage());
+            tempFile.delete();
             return false;
         }
 
         // Replace original file with updated file
-        if (!inputFile.delete() || !tempFile.renameTo(inputFile)) {
-            System.err.println("Error replacing the auctions file during update.");
-            return false;
-        }
+        if (!replace(tempFile, inputFile)) return false;
 
         if (updated) {
-            System.out.println("Auction for item '" + itemName + "' updated successfully.");
+            Log.debug("Auction for item '{}' updated", itemName);
         } else {
-            System.out.println("Auction for item '" + itemName + "' not found. Update failed.");
+            Log.debug("Auction for item '{}' not found, update failed", itemName);
         }
         return updated;
     }
@@ -4,12 +4,12 @@ package Utils;
 public class ItemRegistry {
     private String itemName;
     private String description;
-    private double startingPrice;
-    private double currentPrice;
-    private String highestBidder;
+    private volatile double startingPrice;
+    private volatile double currentPrice;
+    private volatile String highestBidder;
     private long duration;
     private long startTime;
-    private boolean negotiationSent;
+    private volatile boolean negotiationSent;
     private int requestNumber;
     private String sellerName;
 
@@ -41,6 +41,14 @@ public class ItemRegistry {
         boolean negotiationSent = Boolean.parseBoolean(tokens[8].trim());
         int requestNumber = Integer.parseInt(tokens[9].trim().split("#")[1]);
 
+        return restore(itemName, sellerName, description, startingPrice, currentPrice, highestBidder,
+                duration, startTime, negotiationSent, requestNumber);
+    }
+
+    // Rebuilds an auction exactly as it was stored.
+    public static ItemRegistry restore(String itemName, String sellerName, String description, double startingPrice,
+                                       double currentPrice, String highestBidder, long duration, long startTime,
+                                       boolean negotiationSent, int requestNumber) {
         ItemRegistry item = new ItemRegistry(itemName, description, startingPrice, duration, requestNumber, sellerName);
         item.currentPrice = currentPrice;
         item.highestBidder = highestBidder;
@@ -85,6 +93,12 @@ public class ItemRegistry {
         return false;
     }
 
+    // Used when replaying the state log; the bid was already validated when it was accepted.
+    public void restoreBid(String bidder, double bidAmount) {
+        this.currentPrice = bidAmount;
+        this.highestBidder = bidder;
+    }
+
     public void adjustPrice(double newPrice) {
         this.startingPrice = newPrice;
         this.currentPrice = newPrice;
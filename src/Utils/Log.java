@@ -0,0 +1,175 @@
+package Utils;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Asynchronous server log. Callers claim a slot in a fixed ring buffer and store the
+// format string and its arguments; a single writer thread formats them and prints
+// them in batches, so handler threads never wait on the console. When the ring is
+// full the entry is dropped and counted rather than blocking the caller.
+//
+// A call below the current level returns before touching the ring, and formatting
+// only happens on the writer thread, so a disabled call builds no strings. Arguments
+// are formatted later, so they must not be mutated after the call (pass Strings,
+// numbers or immutable objects). "{}" in the format is replaced by the next argument.
+//
+// The level comes from -Dppas.log.level (debug, info, warn, error; default info).
+// Warnings and errors go to stderr, everything else to stdout.
+public class Log {
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO ", "WARN ", "ERROR"};
+
+    private static final int CAPACITY = 8192; // power of two
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final Entry[] ring = new Entry[CAPACITY];
+    private static final AtomicLong head = new AtomicLong(); // next slot to claim
+    private static volatile long tail = 0;                    // next slot to print; writer thread only
+    private static final LongAdder dropped = Metrics.counter("log.dropped");
+    private static volatile int level = parseLevel(System.getProperty("ppas.log.level", "info"));
+
+    private static final class Entry {
+        volatile long sequence = -1; // set last; the writer prints the entry once it equals the slot
+        int level;
+        long time;
+        String thread;
+        String format;
+        Object a, b, c;
+    }
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Entry();
+        }
+        Thread writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level <= DEBUG;
+    }
+
+    public static void debug(String format) { log(DEBUG, format, null, null, null); }
+    public static void debug(String format, Object a) { log(DEBUG, format, a, null, null); }
+    public static void debug(String format, Object a, Object b) { log(DEBUG, format, a, b, null); }
+    public static void debug(String format, Object a, Object b, Object c) { log(DEBUG, format, a, b, c); }
+
+    public static void info(String format) { log(INFO, format, null, null, null); }
+    public static void info(String format, Object a) { log(INFO, format, a, null, null); }
+    public static void info(String format, Object a, Object b) { log(INFO, format, a, b, null); }
+    public static void info(String format, Object a, Object b, Object c) { log(INFO, format, a, b, c); }
+
+    public static void warn(String format) { log(WARN, format, null, null, null); }
+    public static void warn(String format, Object a) { log(WARN, format, a, null, null); }
+    public static void warn(String format, Object a, Object b) { log(WARN, format, a, b, null); }
+
+    public static void error(String format) { log(ERROR, format, null, null, null); }
+    public static void error(String format, Object a) { log(ERROR, format, a, null, null); }
+    public static void error(String format, Object a, Object b) { log(ERROR, format, a, b, null); }
+
+    private static void log(int entryLevel, String format, Object a, Object b, Object c) {
+        if (entryLevel < level) return;
+
+        long slot;
+        do {
+            slot = head.get();
+            if (slot - tail >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(slot, slot + 1));
+
+        Entry e = ring[(int) slot & (CAPACITY - 1)];
+        e.level = entryLevel;
+        e.time = System.currentTimeMillis();
+        e.thread = Thread.currentThread().getName();
+        e.format = format;
+        e.a = a;
+        e.b = b;
+        e.c = c;
+        e.sequence = slot; // publishes the fields above
+    }
+
+    // Waits until everything logged so far has been printed, e.g. before exiting.
+    public static void flush() {
+        long target = head.get();
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        while (tail < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private static void drain() {
+        StringBuilder out = new StringBuilder();
+        StringBuilder err = new StringBuilder();
+        while (true) {
+            long next = tail;
+            Entry e = ring[(int) next & (CAPACITY - 1)];
+            if (e.sequence != next) {
+                // Nothing (more) published: print the batch, then idle briefly
+                print(out, System.out);
+                print(err, System.err);
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+
+            StringBuilder target = e.level >= WARN ? err : out;
+            target.append(TIME.format(Instant.ofEpochMilli(e.time))).append(' ')
+                    .append(LEVEL_NAMES[e.level]).append(" [").append(e.thread).append("] ");
+            format(target, e.format, e.a, e.b, e.c);
+            target.append(System.lineSeparator());
+
+            e.format = null;
+            e.a = e.b = e.c = null; // do not keep arguments alive
+            tail = next + 1;
+            if (out.length() + err.length() > 64 * 1024) {
+                print(out, System.out);
+                print(err, System.err);
+            }
+        }
+    }
+
+    private static void print(StringBuilder batch, PrintStream stream) {
+        if (batch.length() == 0) return;
+        stream.print(batch);
+        stream.flush();
+        batch.setLength(0);
+    }
+
+    private static void format(StringBuilder target, String format, Object a, Object b, Object c) {
+        int argument = 0;
+        int from = 0;
+        int at;
+        while ((at = format.indexOf("{}", from)) >= 0 && argument < 3) {
+            target.append(format, from, at);
+            target.append(argument == 0 ? a : argument == 1 ? b : c);
+            argument++;
+            from = at + 2;
+        }
+        target.append(format, from, format.length());
+    }
+
+    private static int parseLevel(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "debug": return DEBUG;
+            case "warn": return WARN;
+            case "error": return ERROR;
+            default: return INFO;
+        }
+    }
+}
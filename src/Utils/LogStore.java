@@ -0,0 +1,134 @@
+package Utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Log-structured backend: every change is one record appended to the state log, and
+// the .txt files are snapshots written when the log is compacted. At startup each
+// structure reads its snapshot and then replays the log records that concern it.
+public class LogStore implements AccountStore, AuctionStore, SubscriptionStore {
+    private final WriteAheadLog log;
+    private final String accountsFile;
+    private final String auctionsFile;
+    private final String subscriptionsFile;
+
+    // Set as each structure is loaded; compaction snapshots only what this store owns
+    private volatile AccountDirectory accounts;
+    private volatile AuctionBook auctions;
+    private volatile SubscriptionIndex subscriptions;
+
+    public LogStore(String dataDir) throws IOException {
+        this.log = new WriteAheadLog(dataDir + "/" + Storage.STATE_LOG_FILE);
+        this.accountsFile = dataDir + "/" + Storage.ACCOUNTS_FILE;
+        this.auctionsFile = dataDir + "/" + Storage.AUCTIONS_FILE;
+        this.subscriptionsFile = dataDir + "/" + Storage.SUBSCRIPTIONS_FILE;
+    }
+
+    // Called once everything is loaded, so a compaction never drops records a
+    // structure has not replayed yet. The log is only compacted if every snapshot was
+    // written; one that failed leaves the records it would have replaced in the log.
+    public void startCompaction() {
+        log.enableCompaction(() -> {
+            boolean written = true;
+            if (accounts != null) written &= accounts.writeSnapshot(accountsFile);
+            if (auctions != null) written &= auctions.writeSnapshot(auctionsFile);
+            if (subscriptions != null) written &= subscriptions.writeSnapshot(subscriptionsFile);
+            return written;
+        });
+    }
+
+    // Runs action once the records this thread appended are synced, or failure if
+    // they could not be.
+    public void whenDurable(Runnable action, Runnable failure) {
+        log.whenDurable(action, failure);
+    }
+
+    @Override
+    public void load(AccountDirectory accounts) {
+        accounts.readSnapshot(accountsFile);
+        log.replay(record -> {
+            if (record[0].equals(WriteAheadLog.REGISTER)) {
+                accounts.addFromCSV(String.join(",", Arrays.copyOfRange(record, 1, record.length)));
+            } else if (record[0].equals(WriteAheadLog.DEREGISTER)) {
+                accounts.remove(record[1]);
+            }
+        });
+        this.accounts = accounts;
+    }
+
+    @Override
+    public void load(AuctionBook book) {
+        book.readSnapshot(auctionsFile);
+        log.replay(book::replay);
+        this.auctions = book;
+    }
+
+    @Override
+    public void load(SubscriptionIndex subscriptions) {
+        subscriptions.readSnapshot(subscriptionsFile);
+        log.replay(record -> {
+            switch (record[0]) {
+                case WriteAheadLog.SUBSCRIBE:
+                    subscriptions.add(record[1], new RegistrationInfo(record[2], "buyer", record[3], Integer.parseInt(record[4]), 0));
+                    break;
+                case WriteAheadLog.UNSUBSCRIBE:
+                    subscriptions.remove(record[1], new RegistrationInfo(record[2], "buyer", record[3], Integer.parseInt(record[4]), 0));
+                    break;
+                case WriteAheadLog.DEREGISTER:
+                    subscriptions.removeBuyer(record[1]);
+                    break;
+            }
+        });
+        this.subscriptions = subscriptions;
+    }
+
+    @Override
+    public void registered(RegistrationInfo account, int requestNumber) {
+        log.append(WriteAheadLog.REGISTER, AccountDirectory.toCSV(account, requestNumber));
+    }
+
+    @Override
+    public void deregistered(String uniqueName) {
+        log.append(WriteAheadLog.DEREGISTER, uniqueName);
+    }
+
+    @Override
+    public void listed(ItemRegistry item) {
+        log.append(WriteAheadLog.LIST, item.toCSV());
+    }
+
+    @Override
+    public void bidPlaced(ItemRegistry item) {
+        log.append(WriteAheadLog.BID, item.getItemName(), item.getHighestBidder(), item.getCurrentPrice());
+    }
+
+    @Override
+    public void priceAdjusted(ItemRegistry item) {
+        log.append(WriteAheadLog.NEGOTIATE, item.getItemName(), item.getCurrentPrice());
+    }
+
+    @Override
+    public void negotiationSent(ItemRegistry item) {
+        log.append(WriteAheadLog.NEGOTIATION_SENT, item.getItemName());
+    }
+
+    @Override
+    public void ended(ItemRegistry item) {
+        log.append(WriteAheadLog.END, item.getItemName());
+    }
+
+    @Override
+    public void subscribed(String itemName, RegistrationInfo buyer) {
+        log.append(WriteAheadLog.SUBSCRIBE, itemName, buyer.getUniqueName(), buyer.getIpAddress(), buyer.getUdpPort());
+    }
+
+    @Override
+    public void unsubscribed(String itemName, RegistrationInfo buyer) {
+        log.append(WriteAheadLog.UNSUBSCRIBE, itemName, buyer.getUniqueName(), buyer.getIpAddress(), buyer.getUdpPort());
+    }
+
+    @Override
+    public void buyerRemoved(String uniqueName) {
+        // Replaying the DEREGISTER record already drops the buyer's subscriptions
+    }
+}
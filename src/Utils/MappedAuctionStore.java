@@ -0,0 +1,280 @@
+package Utils;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Live auctions kept in a memory-mapped file of fixed-size slots, one per auction,
+// with an index from item name to slot. Listing fills a free slot, a bid rewrites
+// only the price and bidder fields of its slot, and ending an auction frees it, so
+// persisting a change costs the same however many auctions there are.
+//
+// Writes land in the page cache straight away and survive a crash of the server;
+// with force set, each write is also flushed to disk (only the slot's own pages)
+// before returning, which is needed to survive a power loss.
+//
+// The prices and bidder are kept twice. A change fills the copy not in use and then
+// flips BID_COPY, so a crash part way through leaves the old price and bidder
+// together rather than the new bidder with the old price.
+//
+// Writes to a slot are serialized by that slot's lock; the monitor only guards
+// handing out slots and growing the file, so bids on different items never wait
+// for each other's flushes.
+public class MappedAuctionStore implements AuctionStore {
+    private static final int MAGIC = 0x50504153; // "PPAS"
+    private static final int SLOT_SIZE = 2048;    // divides the page size, so a slot never spans two pages
+    private static final int HEADER = SLOT_SIZE;  // magic and slot size, padded so slots stay aligned
+    private static final int INITIAL_SLOTS = 64;
+    private static final int SLOT_LOCKS = 64;
+
+    // Strings are stored as an unsigned short byte length followed by UTF-8 bytes
+    private static final int NAME_FIELD = 128;
+    private static final int DESCRIPTION_FIELD = 512;
+
+    // Slot layout
+    private static final int USED = 0;             // byte, written last when a slot is filled
+    private static final int NEGOTIATION_SENT = 1; // byte
+    private static final int BID_COPY = 2;         // byte, which bid copy is current; written last on a change
+    private static final int REQUEST_NUMBER = 4;   // int
+    private static final int DURATION = 8;         // long, ms
+    private static final int START_TIME = 16;      // long, epoch ms
+    private static final int ITEM = 24;
+    private static final int SELLER = ITEM + NAME_FIELD;
+    private static final int DESCRIPTION = SELLER + NAME_FIELD;
+    private static final int BIDS = DESCRIPTION + DESCRIPTION_FIELD; // two copies of the fields below
+
+    // Bid copy layout, relative to the copy
+    private static final int STARTING_PRICE = 0;   // double
+    private static final int CURRENT_PRICE = 8;    // double
+    private static final int BIDDER = 16;
+    private static final int BID_COPY_SIZE = BIDDER + NAME_FIELD;
+
+    private final FileChannel channel;
+    private final boolean force;
+    private volatile MappedByteBuffer map; // replaced when the file grows; an older mapping stays valid for its slots
+    private int slots;
+    private final Map<String, Integer> slotIndex = new ConcurrentHashMap<>(); // changed under the slot's lock
+    private final BitSet usedSlots = new BitSet();
+    private final Object[] slotLocks = new Object[SLOT_LOCKS];
+
+    private static final Metrics.Histogram writeTime = Metrics.histogram("auction.slot.write");
+
+    public MappedAuctionStore(String filePath, boolean force) throws IOException {
+        Path path = Paths.get(filePath);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.force = force;
+        for (int i = 0; i < SLOT_LOCKS; i++) slotLocks[i] = new Object();
+
+        long size = channel.size();
+        if (size == 0) {
+            mapSlots(INITIAL_SLOTS);
+            map.putInt(0, MAGIC);
+            map.putInt(4, SLOT_SIZE);
+            map.force();
+        } else {
+            mapSlots((int) Math.max(INITIAL_SLOTS, (size - HEADER) / SLOT_SIZE));
+            if (map.getInt(0) != MAGIC || map.getInt(4) != SLOT_SIZE) {
+                channel.close();
+                throw new IOException(filePath + " is not an auction slot file of this version");
+            }
+        }
+    }
+
+    private static String key(String itemName) {
+        return itemName.trim().toLowerCase();
+    }
+
+    private void mapSlots(int count) throws IOException {
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) count * SLOT_SIZE); // grows the file
+        slots = count;
+    }
+
+    private static int offset(int slot) {
+        return HEADER + slot * SLOT_SIZE;
+    }
+
+    private Object lockFor(int slot) {
+        return slotLocks[slot % SLOT_LOCKS];
+    }
+
+    @Override
+    public boolean canStoreName(String name) {
+        return name.getBytes(StandardCharsets.UTF_8).length <= NAME_FIELD - 2;
+    }
+
+    // Whether the item's names and description fit their fields; checked before listing.
+    @Override
+    public boolean canStore(ItemRegistry item) {
+        return canStoreName(item.getItemName()) && canStoreName(item.getSellerName()) && canStoreName(item.getHighestBidder())
+                && item.getDescription().getBytes(StandardCharsets.UTF_8).length <= DESCRIPTION_FIELD - 2;
+    }
+
+    // Reads every auction in the file and indexes its slot.
+    @Override
+    public synchronized void load(AuctionBook book) {
+        for (int slot = 0; slot < slots; slot++) {
+            int base = offset(slot);
+            if (map.get(base + USED) != 1) continue;
+
+            int bids = bidCopy(base, map.get(base + BID_COPY));
+            ItemRegistry item = ItemRegistry.restore(
+                    readString(base + ITEM),
+                    readString(base + SELLER),
+                    readString(base + DESCRIPTION),
+                    map.getDouble(bids + STARTING_PRICE),
+                    map.getDouble(bids + CURRENT_PRICE),
+                    readString(bids + BIDDER),
+                    map.getLong(base + DURATION),
+                    map.getLong(base + START_TIME),
+                    map.get(base + NEGOTIATION_SENT) == 1,
+                    map.getInt(base + REQUEST_NUMBER));
+            if (slotIndex.putIfAbsent(key(item.getItemName()), slot) != null) {
+                map.put(base + USED, (byte) 0); // a duplicate left by a crash between remove and put
+                continue;
+            }
+            usedSlots.set(slot);
+            book.add(item);
+        }
+    }
+
+    // Stores a newly listed auction. The caller has checked canStore().
+    @Override
+    public void listed(ItemRegistry item) {
+        long start = System.nanoTime();
+        int slot;
+        synchronized (this) {
+            slot = usedSlots.nextClearBit(0);
+            if (slot >= slots) {
+                try {
+                    mapSlots(slots * 2);
+                } catch (IOException e) {
+                    Log.error("Error growing auction slots, {} not stored: {}", item.getItemName(), e.getMessage());
+                    return;
+                }
+            }
+            usedSlots.set(slot);
+        }
+
+        int base = offset(slot);
+        synchronized (lockFor(slot)) {
+            MappedByteBuffer map = this.map;
+            map.put(base + NEGOTIATION_SENT, (byte) (item.isNegotiationSent() ? 1 : 0));
+            map.putInt(base + REQUEST_NUMBER, item.getRequestNumber());
+            map.putLong(base + DURATION, item.getDuration());
+            map.putLong(base + START_TIME, item.getStartTime());
+            writeString(map, base + ITEM, NAME_FIELD, item.getItemName());
+            writeString(map, base + SELLER, NAME_FIELD, item.getSellerName());
+            writeString(map, base + DESCRIPTION, DESCRIPTION_FIELD, item.getDescription());
+            writeBids(map, bidCopy(base, 0), item);
+            map.put(base + BID_COPY, (byte) 0);
+            map.put(base + USED, (byte) 1);
+
+            slotIndex.put(key(item.getItemName()), slot);
+            flush(map, base);
+        }
+        writeTime.recordSince(start);
+    }
+
+    // An accepted bid: only the current price and the bidder change.
+    @Override
+    public void bidPlaced(ItemRegistry item) {
+        long start = System.nanoTime();
+        if (replaceBids(item)) writeTime.recordSince(start);
+    }
+
+    // A negotiated price resets both prices and the bidder.
+    @Override
+    public void priceAdjusted(ItemRegistry item) {
+        replaceBids(item);
+    }
+
+    @Override
+    public void negotiationSent(ItemRegistry item) {
+        String key = key(item.getItemName());
+        Integer slot = slotIndex.get(key);
+        if (slot == null) return;
+        synchronized (lockFor(slot)) {
+            if (!slot.equals(slotIndex.get(key))) return; // ended meanwhile
+            MappedByteBuffer map = this.map;
+            int base = offset(slot);
+            map.put(base + NEGOTIATION_SENT, (byte) 1);
+            flush(map, base);
+        }
+    }
+
+    @Override
+    public void ended(ItemRegistry item) {
+        String key = key(item.getItemName());
+        Integer slot = slotIndex.get(key);
+        if (slot == null) return;
+        synchronized (lockFor(slot)) {
+            if (!slotIndex.remove(key, slot)) return;
+            MappedByteBuffer map = this.map;
+            int base = offset(slot);
+            map.put(base + USED, (byte) 0);
+            flush(map, base);
+        }
+        synchronized (this) {
+            usedSlots.clear(slot); // only now can the slot be handed out again
+        }
+    }
+
+    // Flushes every slot, e.g. before shutting down when writes are not forced.
+    public void force() {
+        map.force();
+    }
+
+    // Writes the item's prices and bidder into the unused copy, then makes it current.
+    // False if the item has no slot.
+    private boolean replaceBids(ItemRegistry item) {
+        String key = key(item.getItemName());
+        Integer slot = slotIndex.get(key);
+        if (slot == null) return false;
+        synchronized (lockFor(slot)) {
+            if (!slot.equals(slotIndex.get(key))) return false; // ended meanwhile
+            MappedByteBuffer map = this.map;
+            int base = offset(slot);
+            int next = map.get(base + BID_COPY) == 1 ? 0 : 1;
+            writeBids(map, bidCopy(base, next), item);
+            flush(map, base); // on disk before it becomes current
+            map.put(base + BID_COPY, (byte) next);
+            flush(map, base);
+        }
+        return true;
+    }
+
+    private static int bidCopy(int base, int copy) {
+        return base + BIDS + (copy == 1 ? BID_COPY_SIZE : 0);
+    }
+
+    private static void writeBids(MappedByteBuffer map, int at, ItemRegistry item) {
+        map.putDouble(at + STARTING_PRICE, item.getStartingPrice());
+        map.putDouble(at + CURRENT_PRICE, item.getCurrentPrice());
+        writeString(map, at + BIDDER, NAME_FIELD, item.getHighestBidder());
+    }
+
+    private void flush(MappedByteBuffer map, int base) {
+        if (force) map.force(base, SLOT_SIZE);
+    }
+
+    private static void writeString(MappedByteBuffer map, int at, int field, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > field - 2) throw new IllegalArgumentException("Too long for its slot field: " + value);
+        map.put(at + 2, bytes);
+        map.putShort(at, (short) bytes.length);
+    }
+
+    private String readString(int at) {
+        int length = map.getShort(at) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        map.get(at + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
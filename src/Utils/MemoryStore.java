@@ -0,0 +1,22 @@
+package Utils;
+
+// Keeps nothing: the server starts empty and its state lives only in memory. Useful
+// for tests and for measuring the server without any persistence cost.
+public class MemoryStore implements AccountStore, AuctionStore, SubscriptionStore {
+    @Override public void load(AccountDirectory accounts) { }
+    @Override public void load(AuctionBook book) { }
+    @Override public void load(SubscriptionIndex subscriptions) { }
+
+    @Override public void registered(RegistrationInfo account, int requestNumber) { }
+    @Override public void deregistered(String uniqueName) { }
+
+    @Override public void listed(ItemRegistry item) { }
+    @Override public void bidPlaced(ItemRegistry item) { }
+    @Override public void priceAdjusted(ItemRegistry item) { }
+    @Override public void negotiationSent(ItemRegistry item) { }
+    @Override public void ended(ItemRegistry item) { }
+
+    @Override public void subscribed(String itemName, RegistrationInfo buyer) { }
+    @Override public void unsubscribed(String itemName, RegistrationInfo buyer) { }
+    @Override public void buyerRemoved(String uniqueName) { }
+}
@@ -1,7 +1,14 @@
 package Utils;
 
+import java.nio.charset.StandardCharsets;
+
 public class MessageParser {
 
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     public static RegistrationInfo parseRegistrationMessage(String message) throws IllegalArgumentException {
         // Expected format: "register,uniqueName,role,ipAddress,udpPort,tcpPort"
         String[] tokens = message.split(",");
@@ -29,4 +36,266 @@ public class MessageParser {
     public static boolean isGetAllItemsRequest(String message) {
         return message.trim().equalsIgnoreCase("get_all_items");
     }
+
+    public static void parse(String message, Request req) throws IllegalArgumentException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        parse(data, 0, data.length, req);
+    }
+
+    // Decodes a text-protocol request into req. The bytes are walked once: token
+    // boundaries go into the request's scratch arrays, numbers are parsed in place and
+    // string fields stay as ranges of data, so decoding creates no Strings, arrays or
+    // regex matchers. It accepts exactly what the old split()-based parsing did.
+    //
+    // If the message is malformed the opcode (when it could be read) stays set and
+    // the exception message is the denial reason.
+    public static void parse(byte[] data, int offset, int length, Request req) throws IllegalArgumentException {
+        req.reset();
+        int start = offset;
+        int end = offset + length;
+        while (start < end && (data[start] & 0xFF) <= ' ') start++;
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') end--;
+
+        if (matches(data, start, end, "get_all_items")) {
+            req.opcode = Request.GET_ALL_ITEMS;
+            return;
+        }
+        if (matches(data, start, end, "bye")) {
+            req.opcode = Request.BYE;
+            return;
+        }
+
+        // Negotiation replies are space-separated: "ACCEPT RQ#n item price" / "REFUSE RQ#n item ..."
+        int firstWordEnd = start;
+        while (firstWordEnd < end && !isSpace(data[firstWordEnd])) firstWordEnd++;
+        if (matches(data, start, firstWordEnd, "accept")) {
+            req.opcode = Request.ACCEPT;
+            if (splitWords(data, start, end, req) != 4) throw new IllegalArgumentException("Invalid format");
+            setRqTag(req, data, 1);
+            setToken(req, Request.ITEM, data, 2);
+            try {
+                req.amount = parseDouble(data, req.tokenStart[3], req.tokenEnd[3]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid price");
+            }
+            return;
+        }
+        if (matches(data, start, firstWordEnd, "refuse")) {
+            req.opcode = Request.REFUSE;
+            if (splitWords(data, start, end, req) < 3) throw new IllegalArgumentException("Invalid format");
+            setRqTag(req, data, 1);
+            setToken(req, Request.ITEM, data, 2);
+            return;
+        }
+
+        // Everything else is comma-separated with the action first
+        int count = splitCommas(data, start, end, req);
+        if (count < 2) {
+            throw new IllegalArgumentException("Invalid message format.");
+        }
+
+        int actionStart = req.tokenStart[0];
+        int actionEnd = req.tokenEnd[0];
+        if (matches(data, actionStart, actionEnd, "register")) {
+            // register,uniqueName,role,ipAddress,udpPort,tcpPort
+            req.opcode = Request.REGISTER;
+            if (count != 6) throw new IllegalArgumentException("Invalid registration message format");
+            setToken(req, Request.USER, data, 1);
+            setToken(req, Request.ROLE, data, 2);
+            setToken(req, Request.HOST, data, 3);
+            try {
+                req.udpPort = parseInt(data, req.tokenStart[4], req.tokenEnd[4]);
+                req.tcpPort = parseInt(data, req.tokenStart[5], req.tokenEnd[5]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("UDP and TCP ports must be integers");
+            }
+        } else if (matches(data, actionStart, actionEnd, "deregister")) {
+            req.opcode = Request.DEREGISTER;
+            setToken(req, Request.USER, data, 1);
+        } else if (matches(data, actionStart, actionEnd, "list_item")) {
+            // list_item,itemName,description,startingPrice,durationMinutes,sellerName
+            req.opcode = Request.LIST_ITEM;
+            if (count != 6) throw new IllegalArgumentException("Invalid format");
+            setToken(req, Request.ITEM, data, 1);
+            setToken(req, Request.DESCRIPTION, data, 2);
+            try {
+                req.amount = parseDouble(data, req.tokenStart[3], req.tokenEnd[3]);
+                req.durationMinutes = parseLong(data, req.tokenStart[4], req.tokenEnd[4]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid price or duration");
+            }
+            setToken(req, Request.USER, data, 5);
+        } else if (matches(data, actionStart, actionEnd, "subscribe") || matches(data, actionStart, actionEnd, "de-subscribe")) {
+            // subscribe,RQ#,itemName,buyerName -- the buyer name runs to the end; setField rejects any comma in it
+            req.opcode = data[actionStart] == 's' || data[actionStart] == 'S' ? Request.SUBSCRIBE : Request.DE_SUBSCRIBE;
+            if (countCommas(data, start, end) < 3) throw new IllegalArgumentException("Invalid format");
+            req.setField(Request.RQ_TAG, data, req.tokenStart[1], req.tokenEnd[1] - req.tokenStart[1]);
+            setToken(req, Request.ITEM, data, 2);
+            req.setField(Request.USER, data, req.tokenStart[3], end - req.tokenStart[3]);
+        } else if (matches(data, actionStart, actionEnd, "bid")) {
+            // bid,RQ#,itemName,bidderName,amount -- older clients leave out the RQ#
+            req.opcode = Request.BID;
+            if (count != 4 && count != 5) throw new IllegalArgumentException("Invalid format");
+            int first = count - 3;
+            if (first == 2) setToken(req, Request.RQ_TAG, data, 1);
+            setToken(req, Request.ITEM, data, first);
+            setToken(req, Request.USER, data, first + 1);
+            try {
+                req.amount = parseDouble(data, req.tokenStart[first + 2], req.tokenEnd[first + 2]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid bid amount");
+            }
+        } else {
+            String action = new String(data, actionStart, actionEnd - actionStart, StandardCharsets.UTF_8);
+            throw new IllegalArgumentException("Unknown action: " + action.toLowerCase());
+        }
+    }
+
+    // Like split("\\s+") on a trimmed message: records up to 8 words, returns how many there are.
+    private static int splitWords(byte[] data, int start, int end, Request req) {
+        int count = 0;
+        int i = start;
+        while (i < end) {
+            while (i < end && isSpace(data[i])) i++;
+            if (i == end) break;
+            int wordStart = i;
+            while (i < end && !isSpace(data[i])) i++;
+            if (count < req.tokenStart.length) {
+                req.tokenStart[count] = wordStart;
+                req.tokenEnd[count] = i;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // Like split(","): records up to 8 trimmed tokens and returns the token count,
+    // not counting trailing empty tokens (which split() drops).
+    private static int splitCommas(byte[] data, int start, int end, Request req) {
+        int count = 0;
+        int lastNonEmpty = -1;
+        int tokenStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && data[i] != ',') continue;
+            if (count < req.tokenStart.length) {
+                req.tokenStart[count] = tokenStart;
+                req.tokenEnd[count] = i;
+            }
+            if (i > tokenStart) lastNonEmpty = count;
+            count++;
+            tokenStart = i + 1;
+        }
+
+        int stored = Math.min(count, req.tokenStart.length);
+        for (int t = 0; t < stored; t++) {
+            int s = req.tokenStart[t];
+            int e = req.tokenEnd[t];
+            while (s < e && (data[s] & 0xFF) <= ' ') s++;
+            while (e > s && (data[e - 1] & 0xFF) <= ' ') e--;
+            req.tokenStart[t] = s;
+            req.tokenEnd[t] = e;
+        }
+        return lastNonEmpty + 1;
+    }
+
+    private static int countCommas(byte[] data, int start, int end) {
+        int commas = 0;
+        for (int i = start; i < end; i++) {
+            if (data[i] == ',') commas++;
+        }
+        return commas;
+    }
+
+    private static void setToken(Request req, int field, byte[] data, int token) {
+        req.setField(field, data, req.tokenStart[token], req.tokenEnd[token] - req.tokenStart[token]);
+    }
+
+    // Negotiation replies echo "RQ#n"; only n is kept.
+    private static void setRqTag(Request req, byte[] data, int token) {
+        int s = req.tokenStart[token];
+        int e = req.tokenEnd[token];
+        if (e - s >= 3 && matches(data, s, s + 3, "rq#")) s += 3;
+        req.setField(Request.RQ_TAG, data, s, e - s);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    // ASCII case-insensitive comparison against a lower-case keyword.
+    private static boolean matches(byte[] data, int start, int end, String keyword) {
+        if (end - start != keyword.length()) return false;
+        for (int i = 0; i < keyword.length(); i++) {
+            int b = data[start + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static int parseInt(byte[] data, int start, int end) throws NumberFormatException {
+        long value = parseLong(data, start, end);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Out of range");
+        }
+        return (int) value;
+    }
+
+    private static long parseLong(byte[] data, int start, int end) throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        if (i == end) throw new NumberFormatException("No digits");
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Not a number");
+            if (value > (Long.MAX_VALUE - digit) / 10) throw new NumberFormatException("Out of range");
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // Plain decimals ("20", "10.50", "-3.") are parsed here: with at most 2^53 as the
+    // digits and a power of ten up to 1e22 both sides are exact doubles, so one division
+    // gives the correctly rounded result. Anything else (exponents, very long inputs,
+    // NaN, ...) goes to Double.parseDouble so the accepted syntax is unchanged.
+    private static double parseDouble(byte[] data, int start, int end) throws NumberFormatException {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean seenDot = false;
+        for (; i < end; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa >= (1L << 53) / 10) return parseDoubleSlow(data, start, end);
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenDot) scale++;
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else {
+                return parseDoubleSlow(data, start, end);
+            }
+        }
+        if (digits == 0 || scale >= POWERS_OF_TEN.length) return parseDoubleSlow(data, start, end);
+
+        double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(byte[] data, int start, int end) throws NumberFormatException {
+        return Double.parseDouble(new String(data, start, end - start, StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,146 @@
+package Utils;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Process-wide counters, gauges and latency histograms. Recording is lock-free and
+// allocation-free, so it stays on permanently; metrics are created once into static
+// fields by the code that records them. dump() prints everything, and startDump()
+// does so periodically (AuctionServer --metrics).
+public class Metrics {
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private static final Map<String, LongAdder> counters = new LinkedHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+    private static final long startedAt = System.nanoTime();
+
+    private static final Histogram lockWait = histogram("lock.wait");
+    private static final LongAdder lockUncontended = counter("lock.uncontended");
+
+    // Log-linear buckets in the style of HdrHistogram: each power of two is split into
+    // 16 sub-buckets, so a recorded value is off by at most 1/16 (about 6%).
+    public static class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(bucket(value));
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        // Highest value that falls in the bucket
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        // Takes a consistent-enough copy: counts recorded during the copy may or may not be in it.
+        private String summary() {
+            long[] copy = new long[counts.length()];
+            long total = 0;
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = counts.get(i);
+                total += copy[i];
+            }
+            if (total == 0) return "count 0";
+
+            long highest = max.get();
+            return String.format("count %d  mean %s  p50 %s  p99 %s  p999 %s  max %s", total,
+                    format(sum.sum() / total), format(percentile(copy, total, 0.50, highest)),
+                    format(percentile(copy, total, 0.99, highest)), format(percentile(copy, total, 0.999, highest)),
+                    format(highest));
+        }
+
+        private static long percentile(long[] counts, long total, double p, long highest) {
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(upperBound(i), highest);
+            }
+            return highest;
+        }
+    }
+
+    public static synchronized Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public static synchronized LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    // Read when metrics are dumped, never on the hot path.
+    public static synchronized void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // lock.lock(), recording how long the caller waited when the lock was held by someone else.
+    public static void lock(ReentrantLock lock) {
+        if (lock.tryLock()) {
+            lockUncontended.increment();
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        lockWait.recordSince(start);
+    }
+
+    public static synchronized void dump(PrintStream out) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("== metrics, uptime %d s%n", (System.nanoTime() - startedAt) / 1_000_000_000L));
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            report.append(String.format("%-24s %s%n", e.getKey(), e.getValue().summary()));
+        }
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            report.append(String.format("%-24s %d%n", e.getKey(), e.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            report.append(String.format("%-24s %d%n", e.getKey(), e.getValue().getAsLong()));
+        }
+        out.print(report); // one write, so concurrent output does not split the report
+    }
+
+    public static void startDump(long intervalMs) {
+        PrintStream out = System.out;
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(out), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static String format(long nanos) {
+        if (nanos < 1_000) return nanos + "ns";
+        if (nanos < 1_000_000) return String.format("%.1fus", nanos / 1e3);
+        if (nanos < 1_000_000_000) return String.format("%.2fms", nanos / 1e6);
+        return String.format("%.2fs", nanos / 1e9);
+    }
+}
@@ -1,30 +1,84 @@
 package Utils;
 
-import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.List;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
 
 public class NetworkUtils {
 
+    private static final OutboundSender sender = new OutboundSender();
+    private static final ReliableUdp reliability = new ReliableUdp(sender::enqueueFramed);
+
+    static {
+        sender.setReliability(reliability);
+    }
+
+    // Flood protection: at most packetsPerSecond datagrams to any one client,
+    // with short bursts of up to burst packets. 0 turns pacing off.
+    public static void configurePacing(double packetsPerSecond, int burst) {
+        sender.setPacing(packetsPerSecond, burst);
+    }
+
+    // Unwraps a ReliableUdp frame from a client. Returns the offset of the request inside
+    // data, 0 for a plain datagram, or -1 when there is nothing to handle (a bare ack or
+    // a retransmission of a request that was already handled).
+    public static int acceptReliable(DatagramSocket ds, InetSocketAddress client, byte[] data, int length) {
+        if (!ReliableUdp.isFrame(data, length)) return 0;
+        return reliability.receive(ds, client, data, length);
+    }
+
+    public static int outboundQueueDepth() {
+        return sender.queueDepth();
+    }
+
     public static void sendMessageToClient(DatagramSocket ds, InetAddress clientIP, int clientPort, String message) {
-        try {
-            byte[] buf = message.getBytes();
-            DatagramPacket dpSend = new DatagramPacket(buf, buf.length, clientIP, clientPort);
-
-            // Optional: delay to prevent flooding
-            try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                System.err.println("Sleep interrupted: " + e.getMessage());
-            }
-
-            System.out.println("Sending message to client: " + message);
-            ds.send(dpSend);
-            System.out.println("Sent response to " + clientIP + ":" + clientPort);
-        } catch (IOException e) {
-            System.err.println("Error sending message: " + e.getMessage());
+        sendMessageToClient(ds, new InetSocketAddress(clientIP, clientPort), message);
+    }
+
+    // Takes the endpoint cached on RegistrationInfo, so broadcasts never resolve a name.
+    public static void sendMessageToClient(DatagramSocket ds, InetSocketAddress client, String message) {
+        if (client.isUnresolved()) {
+            Log.warn("Unable to resolve IP address {}", client.getHostString());
+            return;
+        }
+        Log.debug("Sending message to client: {}", message);
+        sender.enqueue(ds, client, message.getBytes());
+    }
+
+    // Already-encoded payloads, such as binary protocol frames.
+    public static void sendPayload(DatagramSocket ds, InetSocketAddress client, byte[] payload) {
+        if (client.isUnresolved()) {
+            Log.warn("Unable to resolve IP address {}", client.getHostString());
+            return;
+        }
+        sender.enqueue(ds, client, payload);
+    }
+
+    // Fan-out: the message is encoded once and queued as a single entry for every
+    // recipient. alsoTo (usually the seller) may be null.
+    public static void broadcast(DatagramSocket ds, Collection<RegistrationInfo> recipients, RegistrationInfo alsoTo, String message) {
+        InetSocketAddress[] destinations = new InetSocketAddress[recipients.size() + 1];
+        int n = 0;
+        for (RegistrationInfo r : recipients) {
+            if (n == destinations.length - 1) break; // subscribed after we sized the array
+            n = addDestination(destinations, n, r);
+        }
+        if (alsoTo != null) n = addDestination(destinations, n, alsoTo);
+        if (n == 0) return;
+
+        Log.debug("Broadcasting to {} clients: {}", n, message);
+        sender.enqueue(ds, n == destinations.length ? destinations : Arrays.copyOf(destinations, n), message.getBytes());
+    }
+
+    private static int addDestination(InetSocketAddress[] destinations, int n, RegistrationInfo r) {
+        InetSocketAddress address = r.getUdpAddress();
+        if (address.isUnresolved()) {
+            Log.warn("Unable to resolve IP address {}", address.getHostString());
+            return n;
         }
+        destinations[n] = address;
+        return n + 1;
     }
 }
@@ -0,0 +1,229 @@
+package Utils;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Outbound datagram queue drained by one dedicated sender thread. Callers return
+// as soon as the packet is queued. When pacing is enabled each destination gets a
+// token bucket; a packet that finds its bucket empty is pushed back until a token
+// is due instead of holding up packets for other clients. A bucket that has refilled
+// to the full burst behaves exactly like a new one, so those are dropped every
+// BUCKET_SWEEP_MS to keep short-lived client ports from piling up.
+//
+// A broadcast is queued once with its encoded payload and all its destinations.
+// The sender writes the same bytes to each of them through one reused packet (or
+// one read-only buffer in NIO mode), so nothing is allocated per recipient.
+// Recipients that use ReliableUdp are the exception: each gets its own framed copy,
+// sequenced at the moment it is actually sent.
+public class OutboundSender {
+    private static final long BUCKET_SWEEP_MS = 10_000;
+
+    private final DelayQueue<Outgoing> queue = new DelayQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<InetSocketAddress, TokenBucket> buckets = new HashMap<>(); // sender thread only
+    private final DatagramPacket packet = new DatagramPacket(new byte[0], 0); // sender thread only
+    private long lastSweep = System.nanoTime(); // sender thread only
+
+    private static final LongAdder datagramsSent = Metrics.counter("outbound.datagrams");
+    private static final LongAdder datagramsPaced = Metrics.counter("outbound.paced");
+    private static final Metrics.Histogram queueDelay = Metrics.histogram("outbound.queue.delay"); // enqueue to send
+
+    private volatile double packetsPerSecond = 0; // 0 disables pacing
+    private volatile int burst = 1;
+    private volatile ReliableUdp reliability; // null when no client can opt in
+
+    public OutboundSender() {
+        Thread t = new Thread(this::drain, "udp-sender");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void setPacing(double packetsPerSecond, int burst) {
+        this.packetsPerSecond = packetsPerSecond;
+        this.burst = Math.max(1, burst);
+    }
+
+    public void setReliability(ReliableUdp reliability) {
+        this.reliability = reliability;
+    }
+
+    public void enqueue(DatagramSocket ds, InetSocketAddress destination, byte[] payload) {
+        enqueue(ds, new InetSocketAddress[]{destination}, payload);
+    }
+
+    // The payload is shared by every destination and must not be modified afterwards.
+    public void enqueue(DatagramSocket ds, InetSocketAddress[] destinations, byte[] payload) {
+        enqueue(ds, destinations, payload, false);
+    }
+
+    // A frame ReliableUdp has already sequenced (a retransmission or an ack), sent as is.
+    public void enqueueFramed(DatagramSocket ds, InetSocketAddress destination, byte[] frame) {
+        enqueue(ds, new InetSocketAddress[]{destination}, frame, true);
+    }
+
+    private void enqueue(DatagramSocket ds, InetSocketAddress[] destinations, byte[] payload, boolean framed) {
+        if (destinations.length == 0) return;
+        long now = System.nanoTime();
+        queue.offer(new Outgoing(ds, destinations, payload, framed, now, now, sequence.getAndIncrement()));
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    private void drain() {
+        while (true) {
+            Outgoing next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Log.error("Sender interrupted: {}", e.getMessage());
+                return;
+            }
+            sweepBuckets();
+
+            ByteBuffer shared = null;
+            ReliableUdp reliable = next.framed ? null : reliability;
+            for (InetSocketAddress destination : next.destinations) {
+                long waitNanos = reserve(destination);
+                if (waitNanos > 0) {
+                    // Only this destination waits; the rest of a broadcast carries on
+                    queue.offer(new Outgoing(next.ds, new InetSocketAddress[]{destination}, next.payload,
+                            next.framed, next.enqueuedAt, System.nanoTime() + waitNanos, next.seq));
+                    datagramsPaced.increment();
+                    continue;
+                }
+
+                try {
+                    byte[] bytes = reliable == null ? next.payload : reliable.wrap(destination, next.payload);
+                    DatagramChannel channel = next.ds.getChannel();
+                    if (channel == null) {
+                        packet.setData(bytes);
+                        packet.setSocketAddress(destination);
+                        next.ds.send(packet);
+                    } else if (bytes != next.payload) {
+                        send(channel, ByteBuffer.wrap(bytes), destination);
+                    } else {
+                        if (shared == null) shared = ByteBuffer.wrap(next.payload).asReadOnlyBuffer();
+                        shared.rewind();
+                        send(channel, shared, destination);
+                    }
+                    datagramsSent.increment();
+                    queueDelay.recordSince(next.enqueuedAt);
+                } catch (IOException e) {
+                    Log.error("Error sending message: {}", e.getMessage());
+                }
+            }
+
+            if (next.destinations.length == 1) {
+                Log.debug("Sent response to {}", next.destinations[0]);
+            } else {
+                Log.debug("Sent broadcast to {} clients", next.destinations.length);
+            }
+        }
+    }
+
+    // NIO mode: the channel is non-blocking, so a full socket buffer returns 0 instead of waiting
+    private static void send(DatagramChannel channel, ByteBuffer buf, InetSocketAddress destination) throws IOException {
+        while (channel.send(buf, destination) == 0) {
+            LockSupport.parkNanos(50_000);
+        }
+    }
+
+    // Returns 0 if the packet may go now, otherwise how long until a token is available.
+    private long reserve(InetSocketAddress destination) {
+        double rate = packetsPerSecond;
+        if (rate <= 0) return 0;
+
+        TokenBucket bucket = buckets.computeIfAbsent(destination, d -> new TokenBucket());
+        return bucket.take(rate, burst, System.nanoTime());
+    }
+
+    private void sweepBuckets() {
+        long now = System.nanoTime();
+        if (now - lastSweep < TimeUnit.MILLISECONDS.toNanos(BUCKET_SWEEP_MS)) return;
+        lastSweep = now;
+
+        double rate = packetsPerSecond;
+        if (rate <= 0) {
+            buckets.clear();
+            return;
+        }
+        int full = burst;
+        Iterator<TokenBucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isFull(rate, full, now)) it.remove();
+        }
+    }
+
+    private static class TokenBucket {
+        private double tokens = -1;
+        private long lastRefill;
+
+        long take(double rate, int burst, long now) {
+            if (tokens < 0) {
+                tokens = burst;
+            } else {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+            }
+            lastRefill = now;
+
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) * 1e9 / rate);
+        }
+
+        boolean isFull(double rate, int burst, long now) {
+            return tokens + (now - lastRefill) * rate / 1e9 >= burst;
+        }
+    }
+
+    private static class Outgoing implements Delayed {
+        final DatagramSocket ds;
+        final InetSocketAddress[] destinations;
+        final byte[] payload;
+        final boolean framed;
+        final long seq;
+        final long enqueuedAt;
+        final long readyAt;
+
+        Outgoing(DatagramSocket ds, InetSocketAddress[] destinations, byte[] payload, boolean framed,
+                 long enqueuedAt, long readyAt, long seq) {
+            this.ds = ds;
+            this.destinations = destinations;
+            this.payload = payload;
+            this.framed = framed;
+            this.enqueuedAt = enqueuedAt;
+            this.readyAt = readyAt;
+            this.seq = seq;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        // Ties keep enqueue order so one client's packets are not reordered.
+        @Override
+        public int compareTo(Delayed other) {
+            Outgoing o = (Outgoing) other;
+            int byTime = Long.compare(readyAt, o.readyAt);
+            return byTime != 0 ? byTime : Long.compare(seq, o.seq);
+        }
+    }
+}
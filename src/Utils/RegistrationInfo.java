@@ -1,11 +1,14 @@
 package Utils;
 
+import java.net.InetSocketAddress;
+
 public class RegistrationInfo {
     private String uniqueName;
     private String role;      // "buyer" or "seller"
     private String ipAddress;
     private int udpPort;
     private int tcpPort;
+    private InetSocketAddress udpAddress; // resolved once here so senders never look it up again
 
     public RegistrationInfo(String uniqueName, String role, String ipAddress, int udpPort, int tcpPort) {
         this.uniqueName = uniqueName;
@@ -13,6 +16,17 @@ public class RegistrationInfo {
         this.ipAddress = ipAddress;
         this.udpPort = udpPort;
         this.tcpPort = tcpPort;
+        this.udpAddress = new InetSocketAddress(ipAddress, udpPort);
+    }
+
+    // For endpoints taken straight from a received packet, which are already resolved.
+    public RegistrationInfo(String uniqueName, String role, InetSocketAddress udpAddress, int tcpPort) {
+        this.uniqueName = uniqueName;
+        this.role = role;
+        this.ipAddress = udpAddress.getAddress().getHostAddress();
+        this.udpPort = udpAddress.getPort();
+        this.tcpPort = tcpPort;
+        this.udpAddress = udpAddress;
     }
 
     // Getters and optionally setters
@@ -21,6 +35,7 @@ public class RegistrationInfo {
     public String getIpAddress() { return ipAddress; }
     public int getUdpPort() { return udpPort; }
     public int getTcpPort() { return tcpPort; }
+    public InetSocketAddress getUdpAddress() { return udpAddress; }
 
     @Override
     public String toString() {
@@ -0,0 +1,401 @@
+package Utils;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Optional reliability layer under the text and binary protocols. A peer opts in by
+// sending its datagrams wrapped in a frame; from then on everything sent to it is
+// wrapped too, and the other side keeps plain datagrams plain.
+//
+//   frame: MAGIC, type, epoch (int32), ack epoch (int32), ack base (int32),
+//          ack bits (int64)[, seq (int32), floor (int32), payload]
+//
+// Each side numbers its frames to a peer from 1 within an epoch, chosen when it starts
+// tracking the peer and newer than any epoch it used before. A peer that was evicted
+// (or a client that restarted) therefore comes back with a new epoch, and the receiver
+// resets what it remembers instead of dropping the restarted sequence numbers as
+// duplicates; frames from an older epoch are stale and ignored. The ack epoch names
+// the stream being acknowledged, so acks meant for an old stream are ignored too.
+//
+// The ack fields ride on every frame: everything up to the base has arrived, and bit
+// i set means base + 1 + i has arrived as well (selective ack). A reply therefore
+// acknowledges its request, and a bare ACK only goes out when nothing else has been
+// sent to the peer for ACK_DELAY_MS, covering everything received meanwhile.
+//
+// Unacknowledged frames are resent after the peer's retransmission timeout (smoothed
+// RTT + 4 x deviation, doubled on each retry and for the peer as a whole until a new
+// RTT sample arrives), or straight away once three later frames have been acked.
+// Received sequence numbers are remembered, so a retransmitted request is acked again
+// but never handed to the server twice.
+//
+// The ack never reaches past a missing frame: one that arrives more than 64 ahead of
+// the ack base is dropped unacked, and the sender retransmits it once the gap has
+// filled. A gap is only skipped when the sender gives up on the frame after
+// MAX_RETRIES; data frames carry the floor below which every frame was either acked
+// or given up on, and the receiver moves its base up to it. Frames waiting beyond the
+// receiver's window are not given up on meanwhile.
+public final class ReliableUdp {
+    public static final byte MAGIC = (byte) 0xA6;
+    private static final byte DATA = 1;
+    private static final byte ACK = 2;
+    private static final int ACK_HEADER = 22;
+    private static final int DATA_HEADER = ACK_HEADER + 8;
+
+    private static final long INITIAL_RTO_MS = 200;
+    private static final long MAX_RTO_MS = 2_000;
+    private static final long ACK_DELAY_MS = 100;
+    private static final long MIN_RTO_MS = ACK_DELAY_MS + 50; // the peer may hold its ack for ACK_DELAY_MS
+    private static final int MAX_RETRIES = 8;
+    private static final int FAST_RETRANSMIT_GAP = 3;
+    private static final long IDLE_PEER_MS = 10 * 60_000;
+    private static final long TICK_MS = 10;
+
+    private static final LongAdder retransmits = Metrics.counter("reliable.retransmits");
+    private static final LongAdder duplicates = Metrics.counter("reliable.duplicates");
+    private static final LongAdder bareAcks = Metrics.counter("reliable.acks");
+    private static final LongAdder abandoned = Metrics.counter("reliable.abandoned");
+    private static final LongAdder stale = Metrics.counter("reliable.stale");
+    private static final LongAdder outOfWindow = Metrics.counter("reliable.out.of.window");
+
+    // Epochs are seconds since 1970, bumped when two streams start within one second
+    private static final AtomicInteger lastEpoch = new AtomicInteger();
+
+    // One timer thread serves every instance in the process
+    private static final List<ReliableUdp> instances = new CopyOnWriteArrayList<>();
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reliable-udp");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        timer.scheduleWithFixedDelay(() -> {
+            for (ReliableUdp instance : instances) instance.tick();
+        }, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Puts an already-framed datagram on the wire.
+    public interface Transmitter {
+        void send(DatagramSocket ds, InetSocketAddress to, byte[] frame) throws IOException;
+    }
+
+    private final Transmitter transmitter;
+    private final Map<InetSocketAddress, Peer> peers = new ConcurrentHashMap<>();
+
+    private static final class Pending {
+        final int seq;
+        final byte[] frame;
+        long sentAt;
+        int retries;
+
+        Pending(int seq, byte[] frame, long sentAt) {
+            this.seq = seq;
+            this.frame = frame;
+            this.sentAt = sentAt;
+        }
+    }
+
+    // All fields guarded by the peer itself
+    private static final class Peer {
+        final InetSocketAddress address;
+        DatagramSocket ds;
+        long lastHeard = System.currentTimeMillis();
+
+        // Sending side
+        final int epoch = nextEpoch();
+        int nextSeq = 1;
+        int floor = 1;         // every seq below here was acked or abandoned
+        int peerReceived;      // the peer's latest ack base
+        final Map<Integer, Pending> unacked = new HashMap<>();
+        double srtt = -1;
+        double rttvar;
+        long rto = INITIAL_RTO_MS;
+
+        // Receiving side
+        int peerEpoch;         // 0 until the peer's first frame
+        int received;          // every seq up to here has arrived
+        long receivedBits;     // bit i: received + 1 + i has arrived
+        long ackDueAt;         // 0 when nothing is waiting to be acked
+
+        Peer(InetSocketAddress address, DatagramSocket ds) {
+            this.address = address;
+            this.ds = ds;
+        }
+    }
+
+    public ReliableUdp(Transmitter transmitter) {
+        this.transmitter = transmitter;
+        instances.add(this);
+    }
+
+    public void close() {
+        instances.remove(this);
+        peers.clear();
+    }
+
+    private static int nextEpoch() {
+        int now = (int) (System.currentTimeMillis() / 1000);
+        return lastEpoch.updateAndGet(last -> now - last > 0 ? now : last + 1);
+    }
+
+    public static boolean isFrame(byte[] data, int length) {
+        return length >= ACK_HEADER && data[0] == MAGIC;
+    }
+
+    // Client side: wrap everything sent to this peer from now on.
+    public void enable(DatagramSocket ds, InetSocketAddress peer) {
+        peers.computeIfAbsent(peer, p -> new Peer(p, ds));
+    }
+
+    public boolean isEnabled(InetSocketAddress peer) {
+        return peers.containsKey(peer);
+    }
+
+    // Frames payload for a peer that has opted in and tracks it until acked. Returns the
+    // payload unchanged for any other destination.
+    public byte[] wrap(InetSocketAddress to, byte[] payload) {
+        Peer peer = peers.get(to);
+        if (peer == null) return payload;
+
+        synchronized (peer) {
+            int seq = peer.nextSeq++;
+            byte[] frame = new byte[DATA_HEADER + payload.length];
+            writeAck(peer, frame, DATA);
+            ByteBuffer.wrap(frame, ACK_HEADER, 8).putInt(seq).putInt(peer.floor);
+            System.arraycopy(payload, 0, frame, DATA_HEADER, payload.length);
+            peer.unacked.put(seq, new Pending(seq, frame, System.nanoTime()));
+            peer.ackDueAt = 0; // this frame carries the ack
+            return frame;
+        }
+    }
+
+    // Handles an incoming frame: applies its acks, and for new data returns the offset of
+    // the payload within data. Returns -1 for a bare ack or a duplicate.
+    public int receive(DatagramSocket ds, InetSocketAddress from, byte[] data, int length) {
+        if (!isFrame(data, length)) return 0;
+        ByteBuffer header = ByteBuffer.wrap(data, 0, length);
+        byte type = data[1];
+        int epoch = header.getInt(2);
+        int ackEpoch = header.getInt(6);
+        int ackBase = header.getInt(10);
+        long ackBits = header.getLong(14);
+        if (type != DATA && type != ACK) return -1;
+        if (type == DATA && length < DATA_HEADER) return -1;
+
+        Peer peer = peers.computeIfAbsent(from, p -> new Peer(p, ds));
+        List<Pending> resend;
+        boolean fresh = false;
+        boolean early = false;
+        synchronized (peer) {
+            if (epoch != peer.peerEpoch) {
+                if (peer.peerEpoch != 0 && epoch - peer.peerEpoch < 0) {
+                    stale.increment(); // delayed from before the peer restarted its numbering
+                    return -1;
+                }
+                // The peer started a new stream: whatever it sent before no longer counts
+                peer.peerEpoch = epoch;
+                peer.received = 0;
+                peer.receivedBits = 0;
+            }
+            peer.ds = ds;
+            peer.lastHeard = System.currentTimeMillis();
+            resend = ackEpoch == peer.epoch ? applyAck(peer, ackBase, ackBits) : null;
+
+            if (type == DATA) {
+                int seq = header.getInt(ACK_HEADER);
+                skipAbandoned(peer, header.getInt(ACK_HEADER + 4));
+                if (seq - peer.received > 64) {
+                    early = true; // acking it would also ack the gap behind it
+                } else {
+                    fresh = markReceived(peer, seq);
+                    long now = System.nanoTime();
+                    if (!fresh) {
+                        peer.ackDueAt = now; // our ack was lost, so the sender is retrying: answer now
+                    } else if (peer.ackDueAt == 0) {
+                        peer.ackDueAt = now + TimeUnit.MILLISECONDS.toNanos(ACK_DELAY_MS);
+                    }
+                }
+            }
+        }
+        if (resend != null) {
+            for (Pending p : resend) transmit(peer, p.frame);
+        }
+
+        if (type == ACK) return -1;
+        if (early) {
+            outOfWindow.increment();
+            return -1;
+        }
+        if (!fresh) {
+            duplicates.increment();
+            return -1;
+        }
+        return DATA_HEADER;
+    }
+
+    private static void writeAck(Peer peer, byte[] frame, byte type) {
+        ByteBuffer header = ByteBuffer.wrap(frame, 0, ACK_HEADER);
+        header.put(MAGIC).put(type).putInt(peer.epoch).putInt(peer.peerEpoch).putInt(peer.received).putLong(peer.receivedBits);
+    }
+
+    // Drops what the peer has acknowledged and feeds the RTT estimate. Returns frames to
+    // fast-retransmit because later ones have already arrived.
+    private static List<Pending> applyAck(Peer peer, int ackBase, long ackBits) {
+        if (ackBase - peer.peerReceived > 0) peer.peerReceived = ackBase;
+        if (peer.unacked.isEmpty()) return null;
+        long now = System.nanoTime();
+        int highestAcked = ackBase;
+        for (int i = 63; i >= 0; i--) {
+            if ((ackBits & (1L << i)) != 0) {
+                highestAcked = ackBase + 1 + i;
+                break;
+            }
+        }
+
+        List<Pending> resend = null;
+        Iterator<Pending> it = peer.unacked.values().iterator();
+        while (it.hasNext()) {
+            Pending p = it.next();
+            int offset = p.seq - ackBase - 1;
+            boolean acked = p.seq <= ackBase || (offset < 64 && (ackBits & (1L << offset)) != 0);
+            if (acked) {
+                if (p.retries == 0) sampleRtt(peer, (now - p.sentAt) / 1e6); // Karn: never time a resent frame
+                it.remove();
+            } else if (p.retries == 0 && highestAcked - p.seq >= FAST_RETRANSMIT_GAP) {
+                p.retries++;
+                p.sentAt = now;
+                refreshAck(peer, p.frame);
+                if (resend == null) resend = new ArrayList<>();
+                resend.add(p);
+                retransmits.increment();
+            }
+        }
+        return resend;
+    }
+
+    private static void sampleRtt(Peer peer, double rttMs) {
+        if (peer.srtt < 0) {
+            peer.srtt = rttMs;
+            peer.rttvar = rttMs / 2;
+        } else {
+            peer.rttvar = 0.75 * peer.rttvar + 0.25 * Math.abs(peer.srtt - rttMs);
+            peer.srtt = 0.875 * peer.srtt + 0.125 * rttMs;
+        }
+        peer.rto = Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, (long) Math.ceil(peer.srtt + 4 * peer.rttvar)));
+    }
+
+    // True the first time seq arrives. seq must lie within 64 of the ack base.
+    private static boolean markReceived(Peer peer, int seq) {
+        if (seq <= peer.received) return false;
+        long bit = 1L << (seq - peer.received - 1);
+        if ((peer.receivedBits & bit) != 0) return false;
+        peer.receivedBits |= bit;
+        slideBase(peer);
+        return true;
+    }
+
+    // The sender has given up on whatever below floor has not arrived, so stop waiting for it.
+    private static void skipAbandoned(Peer peer, int floor) {
+        int shift = floor - 1 - peer.received;
+        if (shift <= 0) return;
+        peer.receivedBits = shift >= 64 ? 0 : peer.receivedBits >>> shift;
+        peer.received += shift;
+        slideBase(peer);
+    }
+
+    // Slide the base over the contiguous run
+    private static void slideBase(Peer peer) {
+        while ((peer.receivedBits & 1) != 0) {
+            peer.receivedBits >>>= 1;
+            peer.received++;
+        }
+    }
+
+    private static void refreshAck(Peer peer, byte[] frame) {
+        ByteBuffer.wrap(frame, 6, 16).putInt(peer.peerEpoch).putInt(peer.received).putLong(peer.receivedBits);
+        ByteBuffer.wrap(frame, ACK_HEADER + 4, 4).putInt(peer.floor);
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        long nowMs = System.currentTimeMillis();
+        Iterator<Peer> peerIt = peers.values().iterator();
+        while (peerIt.hasNext()) {
+            Peer peer = peerIt.next();
+            List<byte[]> out = null;
+            synchronized (peer) {
+                if (peer.unacked.isEmpty() && nowMs - peer.lastHeard > IDLE_PEER_MS) {
+                    peerIt.remove();
+                    continue;
+                }
+
+                boolean gaveUp = false;
+                Iterator<Pending> it = peer.unacked.values().iterator();
+                while (it.hasNext()) {
+                    Pending p = it.next();
+                    long timeout = TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_RTO_MS, peer.rto << Math.min(p.retries, 16)));
+                    if (now - p.sentAt < timeout) continue;
+                    // A frame beyond the peer's window is waiting for the gap behind it, not lost,
+                    // so it keeps one try in hand for when the window reaches it
+                    boolean waiting = p.seq - peer.peerReceived > 64;
+                    if (p.retries >= MAX_RETRIES && !waiting) {
+                        it.remove();
+                        abandoned.increment();
+                        gaveUp = true;
+                        continue;
+                    }
+                    if (p.retries == 0) peer.rto = Math.min(MAX_RTO_MS, peer.rto * 2); // back off until a fresh sample
+                    p.retries = waiting ? Math.min(p.retries + 1, MAX_RETRIES - 1) : p.retries + 1;
+                    p.sentAt = now;
+                    refreshAck(peer, p.frame);
+                    if (out == null) out = new ArrayList<>();
+                    out.add(p.frame);
+                    retransmits.increment();
+                    peer.ackDueAt = 0;
+                }
+                if (gaveUp) {
+                    int floor = peer.nextSeq;
+                    for (int seq : peer.unacked.keySet()) floor = Math.min(floor, seq);
+                    peer.floor = floor;
+                    if (out != null) {
+                        for (byte[] frame : out) refreshAck(peer, frame);
+                    }
+                }
+
+                if (peer.ackDueAt != 0 && now >= peer.ackDueAt) {
+                    byte[] ack = new byte[ACK_HEADER];
+                    writeAck(peer, ack, ACK);
+                    if (out == null) out = new ArrayList<>();
+                    out.add(ack);
+                    bareAcks.increment();
+                    peer.ackDueAt = 0;
+                }
+            }
+            if (out != null) {
+                for (byte[] frame : out) transmit(peer, frame);
+            }
+        }
+    }
+
+    private void transmit(Peer peer, byte[] frame) {
+        try {
+            transmitter.send(peer.ds, peer.address, frame);
+        } catch (IOException e) {
+            Log.warn("Reliable resend to {} failed: {}", peer.address, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package Utils;
+
+// Every reply the server sends to a request. The text protocol renders a reply as
+// prefix + RQ# (+ " Reason: " + reason for denials); the binary protocol sends the
+// code and lets the client render the same text.
+public enum Reply {
+    REGISTERED(1, "Registered,RQ#", false),
+    REGISTER_DENIED(2, "Register-denied RQ#", true),
+    DEREGISTERED(3, "Deregistered RQ#", false),
+    DEREGISTER_DENIED(4, "Deregister-denied RQ#", true),
+    ITEM_LISTED(5, "ITEM_LISTED RQ#", false),
+    LIST_DENIED(6, "LIST-DENIED RQ#", true),
+    SUBSCRIBED(7, "SUBSCRIBED RQ#", false),
+    SUBSCRIPTION_DENIED(8, "SUBSCRIPTION-DENIED RQ#", true),
+    UNSUBSCRIBED(9, "UNSUBSCRIBED RQ#", false),
+    UNSUBSCRIBE_DENIED(10, "UNSUBSCRIBE-DENIED RQ#", true),
+    BID_ACCEPTED(11, "BID-ACCEPTED RQ#", false),
+    BID_DENIED(12, "BID-DENIED RQ#", true),
+    ACCEPTED(13, "ACCEPTED RQ#", false),
+    ACCEPT_DENIED(14, "ACCEPT-DENIED RQ#", true),
+    REFUSED(15, "REFUSED RQ#", false),
+    REFUSE_DENIED(16, "REFUSE-DENIED RQ#", true),
+    ITEMS(17, null, false); // get_all_items: the detail is the listing itself
+
+    private static final Reply[] BY_CODE = new Reply[18];
+
+    static {
+        for (Reply r : values()) {
+            BY_CODE[r.code] = r;
+        }
+    }
+
+    private final int code;
+    private final String prefix;
+    private final boolean denial;
+
+    Reply(int code, String prefix, boolean denial) {
+        this.code = code;
+        this.prefix = prefix;
+        this.denial = denial;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static Reply fromCode(int code) {
+        if (code <= 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IllegalArgumentException("Unknown reply code " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    public String text(String rqTag, String detail) {
+        if (prefix == null) return detail;
+        return denial ? prefix + rqTag + " Reason: " + detail : prefix + rqTag;
+    }
+}
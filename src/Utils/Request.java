@@ -0,0 +1,190 @@
+package Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// One decoded client request. MessageParser (text) and BinaryProtocol (binary) fill it
+// in place, so a handler thread can reuse a single instance for every packet it takes.
+//
+// Decoding allocates nothing: numbers are parsed straight out of the packet and string
+// fields are only recorded as byte ranges of it. A field becomes a String the first
+// time a handler asks for it, so the packet bytes must stay untouched until the
+// request has been handled.
+//
+// Fields end up in comma-separated, line-based files (the state log and the .txt
+// snapshots), so a field containing a comma or a line break is rejected here, for
+// both protocols, rather than being allowed to split or inject a record.
+public class Request {
+    // Opcodes; these are also the opcode bytes on the binary wire format
+    public static final byte UNKNOWN = 0;
+    public static final byte HELLO = 1;
+    public static final byte REGISTER = 2;
+    public static final byte DEREGISTER = 3;
+    public static final byte LIST_ITEM = 4;
+    public static final byte SUBSCRIBE = 5;
+    public static final byte DE_SUBSCRIBE = 6;
+    public static final byte BID = 7;
+    public static final byte ACCEPT = 8;
+    public static final byte REFUSE = 9;
+    public static final byte GET_ALL_ITEMS = 10;
+    public static final byte BYE = 11;
+    private static final String[] OPCODE_NAMES = {"unknown", "hello", "register", "deregister", "list_item",
+            "subscribe", "de-subscribe", "bid", "accept", "refuse", "get_all_items", "bye"};
+
+    // String fields
+    static final int USER = 0;        // registering/deregistering name, seller, buyer or bidder
+    static final int ROLE = 1;
+    static final int HOST = 2;
+    static final int ITEM = 3;
+    static final int DESCRIPTION = 4;
+    static final int RQ_TAG = 5;      // text protocol: the client's RQ# exactly as sent
+    private static final int FIELDS = 6;
+
+    byte opcode;
+    boolean binary;
+    int requestNumber;
+    int udpPort;
+    int tcpPort;
+    double amount;      // bid, starting price or negotiated price
+    long durationMinutes;
+    private String replayKey; // set by the server while the reply may be cached
+
+    private byte[] source;
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldLength = new int[FIELDS]; // -1 when the field is absent
+    private final String[] fieldValue = new String[FIELDS];
+
+    // Tokenizer scratch space, reused across requests
+    final int[] tokenStart = new int[8];
+    final int[] tokenEnd = new int[8];
+    private byte[] scratch = new byte[0];
+
+    public Request() {
+        reset();
+    }
+
+    public final void reset() {
+        opcode = UNKNOWN;
+        binary = false;
+        requestNumber = -1;
+        udpPort = 0;
+        tcpPort = 0;
+        amount = 0;
+        durationMinutes = 0;
+        replayKey = null;
+        source = null;
+        for (int i = 0; i < FIELDS; i++) {
+            fieldLength[i] = -1;
+            fieldValue[i] = null;
+        }
+    }
+
+    // Copies a received buffer into this request's own reusable array, for buffers
+    // (such as direct ones) that have no array to point into.
+    public byte[] load(ByteBuffer buf) {
+        int length = buf.remaining();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, 512)];
+        }
+        buf.get(scratch, 0, length);
+        return scratch;
+    }
+
+    void setField(int field, byte[] data, int start, int length) throws IllegalArgumentException {
+        for (int i = start; i < start + length; i++) {
+            byte b = data[i];
+            if (b == ',' || b == '\n' || b == '\r') {
+                throw new IllegalArgumentException("Fields may not contain commas or line breaks");
+            }
+        }
+        source = data;
+        fieldStart[field] = start;
+        fieldLength[field] = length;
+        fieldValue[field] = null;
+    }
+
+    String field(int field) {
+        String value = fieldValue[field];
+        if (value == null && fieldLength[field] >= 0) {
+            value = new String(source, fieldStart[field], fieldLength[field], StandardCharsets.UTF_8);
+            if (field == ROLE) value = value.toLowerCase();
+            fieldValue[field] = value;
+        }
+        return value;
+    }
+
+    public static String opcodeName(int opcode) {
+        return opcode >= 0 && opcode < OPCODE_NAMES.length ? OPCODE_NAMES[opcode] : OPCODE_NAMES[UNKNOWN];
+    }
+
+    public byte getOpcode() { return opcode; }
+    public boolean isBinary() { return binary; }
+    public int getRequestNumber() { return requestNumber; }
+    public String getUser() { return field(USER); }
+    public String getRole() { return field(ROLE); }
+    public String getHost() { return field(HOST); }
+    public int getUdpPort() { return udpPort; }
+    public int getTcpPort() { return tcpPort; }
+    public String getItem() { return field(ITEM); }
+    public String getDescription() { return field(DESCRIPTION); }
+    public double getAmount() { return amount; }
+    public long getDurationMinutes() { return durationMinutes; }
+
+    // The RQ# to echo back: the client's own tag if it sent one, else the number.
+    // Unnumbered text bids have always been answered with "bid".
+    public String rqTag() {
+        if (fieldLength[RQ_TAG] >= 0) return field(RQ_TAG);
+        if (requestNumber >= 0) return Integer.toString(requestNumber);
+        return opcode == BID ? "bid" : "UNKNOWN";
+    }
+
+    boolean hasRqTag() {
+        return fieldLength[RQ_TAG] >= 0;
+    }
+
+    // The RQ# the client chose, or null if it sent none: older clients send bids without
+    // one, and binary requests leave it 0 when the client does not number them.
+    public String clientRequestNumber() {
+        if (binary) return requestNumber > 0 ? Integer.toString(requestNumber) : null;
+        return hasRqTag() ? field(RQ_TAG) : null;
+    }
+
+    public String getReplayKey() { return replayKey; }
+    public void setReplayKey(String replayKey) { this.replayKey = replayKey; }
+
+    // Register, deregister and list_item are answered with a server-assigned RQ#.
+    public void assignRequestNumber(int requestNumber) {
+        this.requestNumber = requestNumber;
+        fieldLength[RQ_TAG] = -1;
+        fieldValue[RQ_TAG] = null;
+    }
+
+    public boolean usesServerRequestNumber() {
+        return opcode == REGISTER || opcode == DEREGISTER || opcode == LIST_ITEM;
+    }
+
+    // Every comma-protocol action draws a number from the server's counter.
+    public boolean consumesRequestNumber() {
+        return opcode >= REGISTER && opcode <= BID;
+    }
+
+    // Requests that change server state; a retry of one is answered from the ResponseCache.
+    public boolean isReplayable() {
+        return opcode >= REGISTER && opcode <= REFUSE;
+    }
+
+    // The reply used when this request cannot be decoded.
+    public Reply denial() {
+        switch (opcode) {
+            case REGISTER: return Reply.REGISTER_DENIED;
+            case DEREGISTER: return Reply.DEREGISTER_DENIED;
+            case LIST_ITEM: return Reply.LIST_DENIED;
+            case SUBSCRIBE: return Reply.SUBSCRIPTION_DENIED;
+            case DE_SUBSCRIBE: return Reply.UNSUBSCRIBE_DENIED;
+            case BID: return Reply.BID_DENIED;
+            case ACCEPT: return Reply.ACCEPT_DENIED;
+            case REFUSE: return Reply.REFUSE_DENIED;
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package Utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hands out server RQ#s from memory. The file only records the end of the block
+// reserved so far; when a block runs out the next one is written (and synced) before
+// any of its numbers are used. After a restart, crash or not, numbering resumes past
+// the last reserved block, so numbers are never reused. Unused numbers in that block
+// are skipped. If a block cannot be written no number from it is handed out: next()
+// throws, and the following call tries to reserve it again.
+public class RequestNumberAllocator {
+    private final String filePath;
+    private final int blockSize;
+    private final AtomicInteger next;
+    private volatile int reservedThrough; // highest number that is safe to hand out
+    private final Metrics.Histogram reserveTime = Metrics.histogram("file.last_rq.write");
+
+    public RequestNumberAllocator(String filePath, int blockSize) {
+        this.filePath = filePath;
+        this.blockSize = blockSize;
+        int last = FileUtils.readLastRequestNumber(filePath);
+        this.next = new AtomicInteger(last + 1);
+        this.reservedThrough = last;
+    }
+
+    public int next() throws IllegalStateException {
+        int number = next.getAndIncrement();
+        if (number > reservedThrough && !reserveThrough(number)) {
+            throw new IllegalStateException("Could not reserve RQ# " + number + " in " + filePath);
+        }
+        return number;
+    }
+
+    private synchronized boolean reserveThrough(int number) {
+        while (reservedThrough < number) {
+            int end = reservedThrough + blockSize;
+            long start = System.nanoTime();
+            boolean written = FileUtils.writeLastRequestNumber(filePath, end);
+            reserveTime.recordSince(start);
+            if (!written) return false;
+            reservedThrough = end;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,105 @@
+package Utils;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Remembers the reply sent for each state-changing request, keyed by the client's
+// endpoint and its RQ#, so a retried request is answered with the original reply
+// instead of being executed again. Entries expire after a fixed time and the oldest
+// are dropped once the cache is full.
+//
+// Only requests that carry an RQ# chosen by the client are cached. Identical bytes
+// alone do not make a retry: a user who deregisters and registers again with the same
+// details sends the same datagram twice, and both must run.
+//
+// begin() claims a key before the request is handled; a copy of the request that
+// arrives while the first one is still being handled is dropped, and the client's
+// next retry gets the reply once complete() has stored it.
+public class ResponseCache {
+    private static final byte[] PENDING = new byte[0];
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(); // oldest first
+    private final LongAdder replays = Metrics.counter("replay.hits");
+    private final LongAdder pendingDrops = Metrics.counter("replay.pending");
+
+    private static final class Entry {
+        final long storedAt;
+        byte[] response = PENDING;
+
+        Entry(long storedAt) {
+            this.storedAt = storedAt;
+        }
+    }
+
+    public ResponseCache(int capacity, long ttlMs) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlMs * 1_000_000L;
+    }
+
+    // Null for requests without an RQ# of their own (text bids, register, list_item,
+    // binary requests sent with RQ# 0), which are never cached. The request bytes are
+    // part of the key too, so two different requests that happen to reuse an RQ# (the
+    // text client picks them at random) are not mistaken for a retry.
+    public static String key(InetAddress address, int port, Request req, byte[] data, int offset, int length) {
+        String rq = req.clientRequestNumber();
+        if (rq == null) return null;
+        return address.getHostAddress() + ':' + port + '/' + req.getOpcode() + '#' + rq + '/'
+                + new String(data, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    // Returns null if the caller should handle the request (and later call complete()
+    // or abandon()), or the bytes to replay. isPending() tells whether the original
+    // is still being handled, in which case there is nothing to send yet.
+    public synchronized byte[] begin(String key) {
+        long now = System.nanoTime();
+        evictExpired(now);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.response == PENDING) {
+                pendingDrops.increment();
+            } else {
+                replays.increment();
+            }
+            return entry.response;
+        }
+        entries.put(key, new Entry(now));
+        if (entries.size() > capacity) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        return null;
+    }
+
+    public static boolean isPending(byte[] response) {
+        return response == PENDING;
+    }
+
+    public synchronized void complete(String key, byte[] response) {
+        Entry entry = entries.get(key);
+        if (entry != null) entry.response = response;
+    }
+
+    // The request ended without a reply; let a retry run it again.
+    public synchronized void abandon(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.response == PENDING) entries.remove(key);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext() && now - it.next().getValue().storedAt > ttlNanos) {
+            it.remove();
+        }
+    }
+}
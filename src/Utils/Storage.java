@@ -0,0 +1,71 @@
+package Utils;
+
+import java.io.IOException;
+
+// Picks the persistence backend for a deployment and loads the server's state from it.
+//   log     state log plus snapshot files (default)
+//   text    the .txt files rewritten on every change
+//   memory  nothing is persisted
+// Auctions can separately be kept in a memory-mapped slot file ("mmap"); accounts
+// and subscriptions then stay with the main backend.
+public class Storage {
+    static final String ACCOUNTS_FILE = "accounts.txt";
+    static final String AUCTIONS_FILE = "activeAuctions.txt";
+    static final String SUBSCRIPTIONS_FILE = "subscriptions.txt";
+    static final String STATE_LOG_FILE = "state.log";
+    static final String AUCTION_SLOTS_FILE = "activeAuctions.dat";
+
+    public final AccountStore accounts;
+    public final AuctionStore auctions;
+    public final SubscriptionStore subscriptions;
+    private final LogStore log; // null unless the log backend is in use
+
+    private Storage(AccountStore accounts, AuctionStore auctions, SubscriptionStore subscriptions, LogStore log) {
+        this.accounts = accounts;
+        this.auctions = auctions;
+        this.subscriptions = subscriptions;
+        this.log = log;
+    }
+
+    // auctionBackend may be null to keep auctions with the main backend.
+    public static Storage open(String backend, String auctionBackend, String dataDir, boolean forceAuctionWrites) throws IOException {
+        switch (backend) {
+            case "log":
+                LogStore log = new LogStore(dataDir);
+                return withAuctions(log, log, auctionBackend, dataDir, forceAuctionWrites);
+            case "text":
+                return withAuctions(new TextFileStore(dataDir), null, auctionBackend, dataDir, forceAuctionWrites);
+            case "memory":
+                return withAuctions(new MemoryStore(), null, auctionBackend, dataDir, forceAuctionWrites);
+            default:
+                throw new IllegalArgumentException("Unknown storage backend: " + backend);
+        }
+    }
+
+    private static <S extends AccountStore & AuctionStore & SubscriptionStore> Storage withAuctions(
+            S main, LogStore log, String auctionBackend, String dataDir, boolean forceAuctionWrites) throws IOException {
+        if (auctionBackend == null) return new Storage(main, main, main, log);
+        if (!auctionBackend.equals("mmap")) throw new IllegalArgumentException("Unknown auction storage backend: " + auctionBackend);
+        AuctionStore slots = new MappedAuctionStore(dataDir + "/" + AUCTION_SLOTS_FILE, forceAuctionWrites);
+        return new Storage(main, slots, main, log);
+    }
+
+    // Runs action (usually sending a reply) once every change this thread has handed to
+    // the stores is durable: after the state log's next group commit for the log
+    // backend, immediately for the others, which write synchronously or not at all.
+    // failure runs instead if the state log could not write those changes.
+    public void whenDurable(Runnable action, Runnable failure) {
+        if (log != null) {
+            log.whenDurable(action, failure);
+        } else {
+            action.run();
+        }
+    }
+
+    public void load(AccountDirectory accountDirectory, AuctionBook book, SubscriptionIndex subscriptionIndex) {
+        accounts.load(accountDirectory);
+        auctions.load(book);
+        subscriptions.load(subscriptionIndex);
+        if (log != null) log.startCompaction();
+    }
+}
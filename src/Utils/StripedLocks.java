@@ -0,0 +1,26 @@
+package Utils;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed pool of locks picked by item name, so work on different items rarely
+// contends while every operation on the same item is still serialized.
+public class StripedLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StripedLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    // Item names are compared case-insensitively everywhere, so they must share a stripe.
+    public ReentrantLock lockFor(String itemName) {
+        int h = itemName.trim().toLowerCase().hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+}
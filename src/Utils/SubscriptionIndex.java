@@ -0,0 +1,133 @@
+package Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// In-memory subscriptions with two views: item -> subscribers (keyed by endpoint,
+// which is what identified a subscription in subscriptions.txt) and buyer -> the
+// subscriptions they hold, so a deregistering buyer can be cleaned up directly.
+// A SubscriptionStore persists the changes; the file methods read and write the
+// subscriptions.txt layout for the stores that use it.
+public class SubscriptionIndex {
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, RegistrationInfo>> byItem = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Subscription>> byBuyer = new ConcurrentHashMap<>();
+
+    public void readSnapshot(String filePath) {
+        File file = new File(filePath);
+        if (!file.exists()) return;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split(",");
+                if (tokens.length >= 4) {
+                    try {
+                        RegistrationInfo buyer = new RegistrationInfo(tokens[1].trim(), "buyer", tokens[2].trim(),
+                                Integer.parseInt(tokens[3].trim()), 0);
+                        add(tokens[0].trim(), buyer);
+                    } catch (NumberFormatException e) {
+                        Log.warn("Skipping malformed subscription line: {}", line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error loading subscriptions file: {}", e.getMessage());
+        }
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase();
+    }
+
+    private static String endpoint(RegistrationInfo buyer) {
+        return buyer.getIpAddress() + ":" + buyer.getUdpPort();
+    }
+
+    // Returns false if this endpoint is already subscribed to the item.
+    public boolean add(String itemName, RegistrationInfo buyer) {
+        String item = key(itemName);
+        String endpoint = endpoint(buyer);
+        if (byItem.computeIfAbsent(item, k -> new ConcurrentHashMap<>()).putIfAbsent(endpoint, buyer) != null) {
+            return false;
+        }
+        byBuyer.computeIfAbsent(key(buyer.getUniqueName()), k -> ConcurrentHashMap.newKeySet())
+                .add(new Subscription(item, endpoint));
+        return true;
+    }
+
+    public boolean remove(String itemName, RegistrationInfo buyer) {
+        String item = key(itemName);
+        Map<String, RegistrationInfo> subscribers = byItem.get(item);
+        if (subscribers == null) return false;
+
+        RegistrationInfo removed = subscribers.remove(endpoint(buyer));
+        if (removed == null) return false;
+
+        Set<Subscription> held = byBuyer.get(key(removed.getUniqueName()));
+        if (held != null) held.remove(new Subscription(item, endpoint(buyer)));
+        return true;
+    }
+
+    public boolean isSubscribed(String itemName, RegistrationInfo buyer) {
+        Map<String, RegistrationInfo> subscribers = byItem.get(key(itemName));
+        return subscribers != null && subscribers.containsKey(endpoint(buyer));
+    }
+
+    // Live view for fan-out, so nothing is copied per call. Callers must not modify it.
+    public Collection<RegistrationInfo> subscribersOf(String itemName) {
+        Map<String, RegistrationInfo> subscribers = byItem.get(key(itemName));
+        return subscribers != null ? subscribers.values() : Collections.emptyList();
+    }
+
+    public void removeBuyer(String uniqueName) {
+        Set<Subscription> held = byBuyer.remove(key(uniqueName));
+        if (held == null) return;
+
+        for (Subscription subscription : held) {
+            Map<String, RegistrationInfo> subscribers = byItem.get(subscription.item);
+            if (subscribers != null) subscribers.remove(subscription.endpoint);
+        }
+    }
+
+    // False if the file could not be written; the previous snapshot is then left in place.
+    public boolean writeSnapshot(String filePath) {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, RegistrationInfo>> entry : byItem.entrySet()) {
+            for (RegistrationInfo buyer : entry.getValue().values()) {
+                lines.add(entry.getKey() + "," + buyer.getUniqueName() + "," + buyer.getIpAddress() + "," + buyer.getUdpPort());
+            }
+        }
+        return FileUtils.rewriteFile(filePath, lines);
+    }
+
+    private static class Subscription {
+        final String item;
+        final String endpoint;
+
+        Subscription(String item, String endpoint) {
+            this.item = item;
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Subscription)) return false;
+            Subscription other = (Subscription) o;
+            return item.equals(other.item) && endpoint.equals(other.endpoint);
+        }
+
+        @Override
+        public int hashCode() {
+            return item.hashCode() * 31 + endpoint.hashCode();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package Utils;
+
+// Where subscription changes are persisted; SubscriptionIndex holds the live subscriptions.
+public interface SubscriptionStore {
+    void load(SubscriptionIndex subscriptions);
+
+    void subscribed(String itemName, RegistrationInfo buyer);
+
+    void unsubscribed(String itemName, RegistrationInfo buyer);
+
+    // A deregistered buyer's subscriptions were all dropped.
+    void buyerRemoved(String uniqueName);
+}
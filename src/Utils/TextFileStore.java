@@ -0,0 +1,90 @@
+package Utils;
+
+// Plain text-file backend, the server's original persistence: accounts.txt,
+// activeAuctions.txt and subscriptions.txt always hold the current state. Every
+// change rewrites the whole file from memory, so its cost grows with the file.
+// Writes are serialised so two rewrites of the same file never interleave, and
+// each rewrite includes every change applied before it.
+public class TextFileStore implements AccountStore, AuctionStore, SubscriptionStore {
+    private final String accountsFile;
+    private final String auctionsFile;
+    private final String subscriptionsFile;
+
+    private AccountDirectory accounts;
+    private AuctionBook auctions;
+    private SubscriptionIndex subscriptions;
+
+    public TextFileStore(String dataDir) {
+        this.accountsFile = dataDir + "/" + Storage.ACCOUNTS_FILE;
+        this.auctionsFile = dataDir + "/" + Storage.AUCTIONS_FILE;
+        this.subscriptionsFile = dataDir + "/" + Storage.SUBSCRIPTIONS_FILE;
+    }
+
+    @Override
+    public synchronized void load(AccountDirectory accounts) {
+        accounts.readSnapshot(accountsFile);
+        this.accounts = accounts;
+    }
+
+    @Override
+    public synchronized void load(AuctionBook book) {
+        book.readSnapshot(auctionsFile);
+        this.auctions = book;
+    }
+
+    @Override
+    public synchronized void load(SubscriptionIndex subscriptions) {
+        subscriptions.readSnapshot(subscriptionsFile);
+        this.subscriptions = subscriptions;
+    }
+
+    @Override
+    public synchronized void registered(RegistrationInfo account, int requestNumber) {
+        accounts.writeSnapshot(accountsFile);
+    }
+
+    @Override
+    public synchronized void deregistered(String uniqueName) {
+        accounts.writeSnapshot(accountsFile);
+    }
+
+    @Override
+    public synchronized void listed(ItemRegistry item) {
+        auctions.writeSnapshot(auctionsFile);
+    }
+
+    @Override
+    public synchronized void bidPlaced(ItemRegistry item) {
+        auctions.writeSnapshot(auctionsFile);
+    }
+
+    @Override
+    public synchronized void priceAdjusted(ItemRegistry item) {
+        auctions.writeSnapshot(auctionsFile);
+    }
+
+    @Override
+    public synchronized void negotiationSent(ItemRegistry item) {
+        auctions.writeSnapshot(auctionsFile);
+    }
+
+    @Override
+    public synchronized void ended(ItemRegistry item) {
+        auctions.writeSnapshot(auctionsFile);
+    }
+
+    @Override
+    public synchronized void subscribed(String itemName, RegistrationInfo buyer) {
+        subscriptions.writeSnapshot(subscriptionsFile);
+    }
+
+    @Override
+    public synchronized void unsubscribed(String itemName, RegistrationInfo buyer) {
+        subscriptions.writeSnapshot(subscriptionsFile);
+    }
+
+    @Override
+    public synchronized void buyerRemoved(String uniqueName) {
+        subscriptions.writeSnapshot(subscriptionsFile);
+    }
+}
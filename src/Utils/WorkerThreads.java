@@ -0,0 +1,39 @@
+package Utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Where blocking work runs. By default request handlers share a fixed pool of
+// platform threads; in virtual-thread mode every request, auction finalization
+// and TCP connection gets its own virtual thread, so handlers blocked on file
+// I/O or a slow client no longer cap how many requests can be in flight.
+// Select the mode before the servers create their executors.
+public class WorkerThreads {
+    private static volatile boolean virtual = false;
+
+    public static void useVirtualThreads(boolean enabled) {
+        virtual = enabled;
+    }
+
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    public static ExecutorService newHandlerPool(int platformThreads) {
+        return virtual ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newFixedThreadPool(platformThreads);
+    }
+
+    public static ExecutorService newTaskExecutor() {
+        return virtual ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    public static Thread start(Runnable task) {
+        return virtual ? Thread.ofVirtual().start(task) : startPlatform(task);
+    }
+
+    private static Thread startPlatform(Runnable task) {
+        Thread t = new Thread(task);
+        t.start();
+        return t;
+    }
+}
@@ -0,0 +1,354 @@
+package Utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Append-only log of server state changes, one comma-separated record per line.
+//
+// Group commit: append() only queues the record. A committer thread takes everything
+// queued, once BATCH_RECORDS records are waiting or BATCH_MS after the first one
+// arrived, and writes it with one write and one fsync. whenDurable() runs a callback
+// (such as sending a reply) once the calling thread's latest record is in a synced
+// batch, so the handler never blocks on the disk and a burst of requests shares one
+// fsync. Compaction writes a snapshot of the current state and drops the records it
+// already covers.
+//
+// A batch whose write or fsync fails is cut back off the file and written again, up to
+// WRITE_ATTEMPTS times. If it still fails the log stops acknowledging anything: the
+// records after the gap could not be replayed correctly, so every waiting and later
+// callback gets its failure action instead, until the server is restarted.
+public final class WriteAheadLog {
+    public static final String REGISTER = "REGISTER";
+    public static final String DEREGISTER = "DEREGISTER";
+    public static final String LIST = "LIST";
+    public static final String BID = "BID";
+    public static final String SUBSCRIBE = "SUBSCRIBE";
+    public static final String UNSUBSCRIBE = "UNSUBSCRIBE";
+    public static final String NEGOTIATE = "NEGOTIATE";
+    public static final String NEGOTIATION_SENT = "NEGOTIATION_SENT";
+    public static final String END = "END";
+
+    // -Dppas.wal.batch.ms / -Dppas.wal.batch.records
+    private static final long BATCH_MS = Long.getLong("ppas.wal.batch.ms", 2);
+    private static final int BATCH_RECORDS = Integer.getInteger("ppas.wal.batch.records", 256);
+    private static final int WRITE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 100;
+    private static final long COMPACTION_CHECK_MS = 1_000;
+    private static final long COMPACTION_INTERVAL_MS = 60_000;
+    private static final int COMPACTION_THRESHOLD = 10_000;
+
+    private final Path path;
+    private final Object lock = new Object();   // the queue, sequence numbers and waiters
+    private final Object ioLock = new Object(); // the channel: batch writes and compaction
+    private FileChannel channel;
+    private List<ByteBuffer> queued = new ArrayList<>();
+    private long appended = 0; // sequence number of the last queued record
+    private long durable = 0;  // every record up to this one is synced
+    private boolean failed;    // a batch could not be written; nothing is acknowledged any more
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial(() -> new long[1]);
+    private int recordsSinceCompaction = 0;
+    private long lastCompaction = System.currentTimeMillis();
+    private BooleanSupplier snapshotWriter;
+
+    private static final Metrics.Histogram appendTime = Metrics.histogram("wal.append");
+    private static final Metrics.Histogram syncTime = Metrics.histogram("wal.fsync");
+    private static final Metrics.Histogram compactionTime = Metrics.histogram("wal.compaction");
+    private static final LongAdder batches = Metrics.counter("wal.batches");
+    private static final LongAdder batchedRecords = Metrics.counter("wal.batched.records");
+
+    private static final class Waiter implements Comparable<Waiter> {
+        final long sequence;
+        final Runnable action;
+        final Runnable failure;
+
+        Waiter(long sequence, Runnable action, Runnable failure) {
+            this.sequence = sequence;
+            this.action = action;
+            this.failure = failure;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "wal-compaction");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public WriteAheadLog(String filePath) throws IOException {
+        this.path = Paths.get(filePath);
+        this.channel = openForAppend(path);
+        Thread committer = new Thread(this::commitLoop, "wal-commit");
+        committer.setDaemon(true);
+        committer.start();
+        background.scheduleWithFixedDelay(this::checkCompaction, COMPACTION_CHECK_MS, COMPACTION_CHECK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static FileChannel openForAppend(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // The snapshot writer must persist everything currently held in memory;
+    // records appended before it runs are then dropped from the log.
+    public void enableCompaction(BooleanSupplier snapshotWriter) {
+        this.snapshotWriter = snapshotWriter;
+    }
+
+    public void append(String type, Object... fields) {
+        StringBuilder record = new StringBuilder(type);
+        for (Object field : fields) {
+            record.append(',').append(field);
+        }
+        record.append('\n');
+        ByteBuffer buf = ByteBuffer.wrap(record.toString().getBytes(StandardCharsets.UTF_8));
+
+        long start = System.nanoTime(); // includes waiting for the log's lock
+        long sequence;
+        synchronized (lock) {
+            queued.add(buf);
+            sequence = ++appended;
+            if (queued.size() == 1 || queued.size() >= BATCH_RECORDS) lock.notifyAll();
+        }
+        lastAppended.get()[0] = sequence;
+        appendTime.recordSince(start);
+    }
+
+    // Runs action on the committer thread once every record this thread has appended
+    // since its last call is synced, or right away if it already is (or there are none).
+    // Runs failure instead if those records could not be written.
+    public void whenDurable(Runnable action, Runnable failure) {
+        long[] last = lastAppended.get();
+        long sequence = last[0];
+        last[0] = 0;
+        boolean lost;
+        synchronized (lock) {
+            lost = sequence > durable && failed;
+            if (sequence > durable && !lost) {
+                waiters.add(new Waiter(sequence, action, failure));
+                return;
+            }
+        }
+        (lost ? failure : action).run();
+    }
+
+    private void commitLoop() {
+        while (true) {
+            List<ByteBuffer> batch;
+            long last;
+            synchronized (lock) {
+                try {
+                    while (queued.isEmpty()) lock.wait();
+                    long deadline = System.nanoTime() + BATCH_MS * 1_000_000L;
+                    long remaining;
+                    while (queued.size() < BATCH_RECORDS && (remaining = deadline - System.nanoTime()) > 0) {
+                        lock.wait(remaining / 1_000_000L, (int) (remaining % 1_000_000L));
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch = queued;
+                queued = new ArrayList<>(batch.size());
+                last = appended;
+            }
+
+            boolean written = !isFailed() && writeBatch(batch);
+
+            List<Runnable> ready = new ArrayList<>();
+            synchronized (lock) {
+                if (written) {
+                    durable = last;
+                    while (!waiters.isEmpty() && waiters.peek().sequence <= last) {
+                        ready.add(waiters.poll().action);
+                    }
+                } else {
+                    failed = true;
+                    while (!waiters.isEmpty()) {
+                        ready.add(waiters.poll().failure);
+                    }
+                }
+            }
+            for (Runnable action : ready) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    Log.error("Error after state log commit: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isFailed() {
+        synchronized (lock) {
+            return failed;
+        }
+    }
+
+    // True once the whole batch is written and synced.
+    private boolean writeBatch(List<ByteBuffer> batch) {
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        long size = 0;
+        for (ByteBuffer buf : buffers) size += buf.remaining();
+
+        for (int attempt = 1; attempt <= WRITE_ATTEMPTS; attempt++) {
+            if (attempt > 1) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            synchronized (ioLock) {
+                long end = -1;
+                try {
+                    end = channel.position();
+                    long remaining = size;
+                    while (remaining > 0) {
+                        remaining -= channel.write(buffers); // one gathering write for the whole batch
+                    }
+                    long start = System.nanoTime();
+                    channel.force(false);
+                    syncTime.recordSince(start);
+                    recordsSinceCompaction += batch.size();
+                    batches.increment();
+                    batchedRecords.add(batch.size());
+                    return true;
+                } catch (IOException e) {
+                    Log.error("Error writing state log batch, attempt {}: {}", attempt, e.getMessage());
+                    // Drop whatever part of the batch reached the file; a failed fsync may have
+                    // discarded the dirty pages, so the retry writes everything again.
+                    if (end >= 0) {
+                        try {
+                            channel.truncate(end);
+                        } catch (IOException truncateFailed) {
+                            Log.error("Error truncating state log: {}", truncateFailed.getMessage());
+                            break;
+                        }
+                    }
+                    for (ByteBuffer buf : buffers) buf.rewind();
+                }
+            }
+        }
+        Log.error("State log batch of {} records lost; no further changes will be acknowledged", batch.size());
+        return false;
+    }
+
+    // Feeds every complete record to the handler in the order it was written.
+    public void replay(Consumer<String[]> handler) {
+        if (!Files.exists(path)) return;
+
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                try {
+                    handler.accept(line.split(","));
+                    count++;
+                } catch (RuntimeException e) {
+                    // A torn final record from a crash mid-write ends up here.
+                    Log.warn("Skipping unreadable state log record: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            Log.error("Error replaying state log: {}", e.getMessage());
+        }
+        synchronized (ioLock) {
+            recordsSinceCompaction = count;
+        }
+    }
+
+    private void checkCompaction() {
+        boolean due;
+        synchronized (ioLock) {
+            due = snapshotWriter != null && recordsSinceCompaction > 0 &&
+                    (recordsSinceCompaction >= COMPACTION_THRESHOLD ||
+                            System.currentTimeMillis() - lastCompaction >= COMPACTION_INTERVAL_MS);
+        }
+        if (due && !isFailed()) compact(); // after a lost batch the log is left as it is
+    }
+
+    public void compact() {
+        long start = System.nanoTime();
+        try {
+            compactLog();
+        } finally {
+            compactionTime.recordSince(start);
+        }
+    }
+
+    private void compactLog() {
+        // Records still queued are not in the file yet; they land after the mark and are kept
+        long mark;
+        int recordsAtMark;
+        synchronized (ioLock) {
+            try {
+                mark = channel.position();
+                recordsAtMark = recordsSinceCompaction;
+            } catch (IOException e) {
+                Log.error("Error preparing state log compaction: {}", e.getMessage());
+                return;
+            }
+        }
+
+        // State is applied in memory before its record is appended, so the
+        // snapshot taken now includes everything written before the mark. If any
+        // snapshot file could not be written the log keeps every record, and the
+        // compaction is tried again at the next check.
+        if (!snapshotWriter.getAsBoolean()) {
+            Log.error("State log snapshot failed; log not compacted");
+            return;
+        }
+
+        synchronized (ioLock) {
+            Path tempPath = Paths.get(path + ".tmp");
+            try (FileChannel temp = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long tail = channel.size() - mark;
+                try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long copied = 0;
+                    while (copied < tail) {
+                        copied += source.transferTo(mark + copied, tail - copied, temp);
+                    }
+                }
+                temp.force(true);
+                channel.close();
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileUtils.syncDirectory(path);
+                recordsSinceCompaction -= recordsAtMark;
+                lastCompaction = System.currentTimeMillis();
+            } catch (IOException e) {
+                Log.error("Error compacting state log: {}", e.getMessage());
+            } finally {
+                try {
+                    if (!channel.isOpen()) channel = openForAppend(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("State log could not be reopened", e);
+                }
+            }
+        }
+    }
+}